@@ -4,6 +4,7 @@ import edu.illinois.cs.cs125.answerable.classmanipulation.TypePool
 import edu.illinois.cs.cs125.answerable.classmanipulation.getDefiningKotlinFileClass
 import edu.illinois.cs.cs125.answerable.testing.Gen
 import edu.illinois.cs.cs125.answerable.testing.arraySimpleCases
+import edu.illinois.cs.cs125.answerable.testing.collectionGenerators
 import edu.illinois.cs.cs125.answerable.testing.defaultPrimitiveEdgeCases
 import edu.illinois.cs.cs125.answerable.testing.primitiveGenerators
 import edu.illinois.cs.cs125.answerable.testing.valueSimpleCases
@@ -13,6 +14,7 @@ internal interface LanguageMode {
     val defaultSimpleCases: Map<Class<*>, ArrayWrapper>
     val defaultEdgeCases: Map<Class<*>, ArrayWrapper>
     val defaultGenerators: Map<Class<*>, Gen<*>>
+    val defaultCollectionGenerators: Map<Class<*>, (List<Gen<*>>) -> Gen<*>>
     fun findControlClass(clazz: Class<*>, typePool: TypePool): Class<*>?
 }
 
@@ -28,6 +30,8 @@ internal object JavaMode : LanguageMode {
         }
     override val defaultGenerators: Map<Class<*>, Gen<*>>
         get() = primitiveGenerators
+    override val defaultCollectionGenerators: Map<Class<*>, (List<Gen<*>>) -> Gen<*>>
+        get() = collectionGenerators
 
     override fun findControlClass(clazz: Class<*>, typePool: TypePool): Class<*>? =
         null
@@ -45,6 +49,8 @@ internal object KotlinMode : LanguageMode {
         }
     override val defaultGenerators: Map<Class<*>, Gen<*>>
         get() = primitiveGenerators
+    override val defaultCollectionGenerators: Map<Class<*>, (List<Gen<*>>) -> Gen<*>>
+        get() = collectionGenerators
 
     override fun findControlClass(clazz: Class<*>, typePool: TypePool): Class<*>? =
         getDefiningKotlinFileClass(clazz, typePool)
@@ -15,7 +15,11 @@ import edu.illinois.cs.cs125.answerable.annotations.getTimeout
 import edu.illinois.cs.cs125.answerable.annotations.getVerify
 import edu.illinois.cs.cs125.answerable.annotations.validateAnnotations
 import edu.illinois.cs.cs125.answerable.api.BytecodeProvider
+import edu.illinois.cs.cs125.answerable.api.LoaderMetrics
+import edu.illinois.cs.cs125.answerable.api.RunScopedOutputCapturer
 import edu.illinois.cs.cs125.answerable.api.TestOutput
+import edu.illinois.cs.cs125.answerable.api.TestStepCollector
+import edu.illinois.cs.cs125.answerable.api.TestStepListener
 import edu.illinois.cs.cs125.answerable.api.ossify
 import edu.illinois.cs.cs125.answerable.classdesignanalysis.CDAConfig
 import edu.illinois.cs.cs125.answerable.classdesignanalysis.CDAResult
@@ -23,34 +27,54 @@ import edu.illinois.cs.cs125.answerable.classdesignanalysis.answerableName
 import edu.illinois.cs.cs125.answerable.classdesignanalysis.classDesignAnalysis
 import edu.illinois.cs.cs125.answerable.classdesignanalysis.noCDAResult
 import edu.illinois.cs.cs125.answerable.classmanipulation.TypePool
+import edu.illinois.cs.cs125.answerable.classmanipulation.TypePoolTracker
+import edu.illinois.cs.cs125.answerable.classmanipulation.digest
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkGeneratorMirrorClass
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkOpenMirrorClass
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkProxy
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkValueProxy
 import edu.illinois.cs.cs125.answerable.classmanipulation.verifyMemberAccess
 import edu.illinois.cs.cs125.answerable.testing.Behavior
-import edu.illinois.cs.cs125.answerable.testing.CustomGen
+import edu.illinois.cs.cs125.answerable.testing.ConstructorInvoker
 import edu.illinois.cs.cs125.answerable.testing.DiscardedTestStep
 import edu.illinois.cs.cs125.answerable.testing.ExecutedTestStep
 import edu.illinois.cs.cs125.answerable.testing.GenWrapper
 import edu.illinois.cs.cs125.answerable.testing.GeneratorMap
 import edu.illinois.cs.cs125.answerable.testing.GeneratorMapBuilder
 import edu.illinois.cs.cs125.answerable.testing.GeneratorType
+import edu.illinois.cs.cs125.answerable.testing.InvocationWatchdog
+import edu.illinois.cs.cs125.answerable.testing.MethodInvoker
+import edu.illinois.cs.cs125.answerable.testing.NextInvoker
+import edu.illinois.cs.cs125.answerable.testing.OutputMismatchError
+import edu.illinois.cs.cs125.answerable.testing.ReferenceOutputCache
+import edu.illinois.cs.cs125.answerable.testing.SelfVerificationCache
 import edu.illinois.cs.cs125.answerable.testing.TestRunnerArgs
 import edu.illinois.cs.cs125.answerable.testing.TestStep
 import edu.illinois.cs.cs125.answerable.testing.TestType
 import edu.illinois.cs.cs125.answerable.testing.TestingBlockCounts
 import edu.illinois.cs.cs125.answerable.testing.TestingResults
 import edu.illinois.cs.cs125.answerable.testing.asTestRunnerArgs
+import edu.illinois.cs.cs125.answerable.testing.compareOutputs
+import edu.illinois.cs.cs125.answerable.testing.customGen
 import edu.illinois.cs.cs125.answerable.testing.defaultArgs
-import org.junit.jupiter.api.Assertions.assertEquals
-import org.opentest4j.AssertionFailedError
 import java.lang.reflect.Constructor
 import java.lang.reflect.InvocationTargetException
 import java.lang.reflect.Method
 import java.lang.reflect.Modifier
 import java.lang.reflect.Type
+import java.util.Collections
+import java.util.IdentityHashMap
 import java.util.Random
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicIntegerArray
+import kotlin.math.max
 import kotlin.math.min
 import java.lang.reflect.Array as ReflectArray
 
@@ -68,13 +92,31 @@ import java.lang.reflect.Array as ReflectArray
  * @constructor Creates a [TestGenerator] for the [referenceClass] @[Solution] method named [solutionName],
  * which creates [TestRunner]s which default to using [testRunnerArgs]. If [referenceClass] was loaded dynamically,
  * a [BytecodeProvider] must be specified that can determine its bytecode.
+ *
+ * A [TestGenerator] and the [TestRunner]s it produced can be [close]d once they are no longer needed,
+ * which lets the JVM unload the classes Answerable made for them.
+ *
+ * Before it can be used, the reference solution is tested against itself to make sure that it passes its own tests.
+ * Passes are remembered, so loading the same reference with the same arguments again skips this. If
+ * [verifyReferenceInBackground] is set, the test runs in the background instead of holding up the constructor, and
+ * submissions can be loaded and tested provisionally in the meantime. See [awaitReferenceVerification].
+ *
+ * If [cacheReferenceOutputs] is set and the @[Solution] method is static, the reference's side of each test run is
+ * remembered, so that testing another submission with the same seed and arguments only runs the submission.
+ * The remembered outputs and arguments are shared by all of those runs, so questions with a @[Verify] method, which
+ * could modify them, are never cached. Neither are questions whose classes have static state, since replaying a run
+ * skips the @[Generator]s that could advance it.
+ * See [saveReferenceOutputArchive][edu.illinois.cs.cs125.answerable.api.saveReferenceOutputArchive] to keep them
+ * for a later process.
  */
 class TestGenerator(
     val referenceClass: Class<*>,
     val solutionName: String = DEFAULT_EMPTY_NAME,
     testRunnerArgs: TestRunnerArgs = defaultArgs,
-    internal val bytecodeProvider: BytecodeProvider? = null
-) {
+    internal val bytecodeProvider: BytecodeProvider? = null,
+    verifyReferenceInBackground: Boolean = false,
+    private val cacheReferenceOutputs: Boolean = false
+) : AutoCloseable {
     /**
      * A secondary constructor which uses Answerable's [defaultArgs] and no custom bytecode provider.
      */
@@ -93,6 +135,11 @@ class TestGenerator(
     // The original members are used for certain checks so a nice class name can be displayed.
 
     private val languageMode = referenceClass.languageMode()
+
+    /**
+     * Every type pool made for this question, including those of submissions.
+     */
+    internal val typePools = TypePoolTracker()
     internal val typePool = TypePool(
         bytecodeProvider,
         if (referenceClass.classLoader == javaClass.classLoader) {
@@ -100,7 +147,7 @@ class TestGenerator(
         } else {
             referenceClass.classLoader?.parent ?: javaClass.classLoader
         }
-    )
+    ).also { typePools.track(it) }
     private val controlClass: Class<*> = languageMode.findControlClass(referenceClass, typePool) ?: referenceClass
 
     init {
@@ -156,6 +203,7 @@ class TestGenerator(
     internal val params = usableReferenceMethod?.getAnswerableParams() ?: arrayOf()
     internal val paramsWithReceiver = arrayOf(GeneratorType(usableReferenceClass), *params)
 
+    // Only consulted for which types have generators: test runs draw from their own. See TestRunWorker
     internal val random: Random = Random(0)
     internal val generators: GeneratorMap = buildGeneratorMap(random)
     internal val edgeCases: Map<Type, ArrayWrapper?> =
@@ -180,8 +228,76 @@ class TestGenerator(
         )
     }
 
+    /**
+     * The digest of the bytecode of the reference class, its control class, and the classes nested in them,
+     * or null if their bytecode isn't available.
+     */
+    @Suppress("TooGenericExceptionCaught")
+    private val bytecodeDigest: String? by lazy {
+        try {
+            referenceClasses.joinToString(",") { typePool.getBytecodeForClass(it).digest() }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    /**
+     * The reference class, its control class, and the classes nested in them.
+     */
+    private val referenceClasses: List<Class<*>> by lazy {
+        listOf(referenceClass, controlClass).distinct().flatMap { it.withNestedClasses() }
+    }
+
+    /**
+     * Whether any of the [referenceClasses] has static state. See [hasStaticState]
+     */
+    internal val referenceHasStaticState: Boolean by lazy { referenceClasses.any { it.hasStaticState() } }
+
+    private val referenceVerification = CompletableFuture<Unit>()
+
     init {
-        verifySafety()
+        verifyMemberAccess(referenceClass, typePool)
+        if (verifyReferenceInBackground) {
+            verificationPool.execute {
+                @Suppress("TooGenericExceptionCaught")
+                try {
+                    verifySafety()
+                    referenceVerification.complete(Unit)
+                } catch (e: Throwable) {
+                    referenceVerification.completeExceptionally(e)
+                }
+            }
+        } else {
+            verifySafety()
+            referenceVerification.complete(Unit)
+        }
+    }
+
+    /**
+     * Whether the reference solution has passed testing against itself.
+     * Until then, tests of submissions are provisional.
+     */
+    val isReferenceVerified: Boolean
+        get() = referenceVerification.isDone && !referenceVerification.isCompletedExceptionally
+
+    /**
+     * Waits until the reference solution has been tested against itself, if that is running in the background.
+     *
+     * @throws AnswerableVerificationException if the reference solution failed its own tests
+     */
+    fun awaitReferenceVerification() {
+        try {
+            referenceVerification.join()
+        } catch (e: CompletionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * Rejects further use of this question once its reference solution has failed its own tests.
+     */
+    internal fun checkReferenceVerification() {
+        if (referenceVerification.isCompletedExceptionally) awaitReferenceVerification()
     }
 
     internal fun buildGeneratorMap(
@@ -198,9 +314,9 @@ class TestGenerator(
 
         usableControlClass.getEnabledGenerators(enabledNames).map {
             if (it.returnType == usableReferenceClass && submittedClassGenerator != null) {
-                Pair(GeneratorType(it.genericReturnType), CustomGen(submittedClassGenerator))
+                Pair(GeneratorType(it.genericReturnType), customGen(submittedClassGenerator))
             } else {
-                Pair(GeneratorType(it.genericReturnType), CustomGen(it))
+                Pair(GeneratorType(it.genericReturnType), customGen(it))
             }
         }.also { enabledGens ->
             enabledGens.groupBy { it.first }.forEach { gensForType ->
@@ -213,15 +329,15 @@ class TestGenerator(
         // The map builder needs to be aware of all named generators for parameter-specific generator choices
         usableControlClass.getAllNamedGenerators().map { (name, method) ->
             if (method.returnType == usableReferenceClass && submittedClassGenerator != null) {
-                Pair(GeneratorType(method.genericReturnType, name), CustomGen(submittedClassGenerator))
+                Pair(GeneratorType(method.genericReturnType, name), customGen(submittedClassGenerator))
             } else {
-                Pair(GeneratorType(method.genericReturnType, name), CustomGen(method))
+                Pair(GeneratorType(method.genericReturnType, name), customGen(method))
             }
         }.forEach(generatorMapBuilder::accept)
 
         return generatorMapBuilder.build().also { generatorMap ->
             usableControlClass.getGroupedGenerator(solutionName)?.also {
-                generatorMap.parameterGenerator = GenWrapper(CustomGen(it), random)
+                generatorMap.parameterGenerator = GenWrapper(customGen(it), random)
             }
         }
     }
@@ -237,7 +353,8 @@ class TestGenerator(
     }
 
     private fun verifySafety() {
-        verifyMemberAccess(referenceClass, typePool)
+        val cacheKey = selfVerificationKey()
+        if (cacheKey != null && SelfVerificationCache.hasPassed(cacheKey)) return
 
         @Suppress("MagicNumber")
         val dryRunOutput = PassedClassDesignRunner(
@@ -261,6 +378,30 @@ class TestGenerator(
                 }
             }
         }
+        cacheKey?.also(SelfVerificationCache::recordPass)
+    }
+
+    /**
+     * Identifies the reference's dry run, or returns null if its bytecode isn't available to identify it by.
+     */
+    private fun selfVerificationKey(): SelfVerificationCache.Key? =
+        bytecodeDigest?.let { SelfVerificationCache.Key(it, solutionName, mergedArgs) }
+
+    /**
+     * Identifies the reference side of a test run (or one shard of it) with the [resolvedArgs], or returns null if
+     * it shouldn't be cached. See NOTE: [Reference output cache]
+     */
+    internal fun referenceOutputKey(
+        seed: Long,
+        resolvedArgs: TestRunnerArgs,
+        shard: Int,
+        numShards: Int
+    ): ReferenceOutputCache.Key? {
+        if (!cacheReferenceOutputs || !isStatic || usableReferenceMethod == null || customVerifier != null) return null
+        if (referenceHasStaticState) return null
+        return bytecodeDigest?.let {
+            ReferenceOutputCache.Key(it, solutionName, seed, resolvedArgs, shard, numShards)
+        }
     }
 
     /**
@@ -271,15 +412,25 @@ class TestGenerator(
      * returned. If class design analysis fails, the returned [TestRunner] will never execute any tests, as doing so
      * would be unsafe and cause nasty errors.
      *
+     * If [reuseSubmission] is set, the [TestRunner] prepares the submission (mirrors, sandboxed loader, generators)
+     * once and reuses it for every run in the same [TestEnvironment], which makes testing one submission under
+     * several seeds much cheaper. Static fields of the submission are reset to their initial values before each run,
+     * and so are the contents of arrays and java.util collections they refer to. Other objects they refer to are not,
+     * so only enable this for submissions that don't keep other mutable static state.
+     *
      * @param submissionClass the class to be tested against the reference
      * @param testRunnerArgs the arguments that the [TestRunner] returned should default to.
      * @param bytecodeProvider provider of bytecode for the submission class(es), or null if not loaded dynamically
+     * @param reuseSubmission whether to keep the prepared submission between runs
      */
     fun loadSubmission(
         submissionClass: Class<*>,
         testRunnerArgs: TestRunnerArgs = defaultArgs,
-        bytecodeProvider: BytecodeProvider? = null
+        bytecodeProvider: BytecodeProvider? = null,
+        reuseSubmission: Boolean = false
     ): TestRunner {
+        check(!typePool.isClosed) { "This TestGenerator has been closed" }
+        checkReferenceVerification()
         val cdaResult = classDesignAnalysis(
             referenceClass,
             submissionClass,
@@ -293,12 +444,42 @@ class TestGenerator(
                 submissionClass,
                 cdaResult,
                 testRunnerArgs.applyOver(this.mergedArgs),
-                bytecodeProvider
+                bytecodeProvider,
+                reuseSubmission = reuseSubmission
             )
         } else {
             FailedClassDesignTestRunner(referenceClass, solutionName, submissionClass, cdaResult)
         }
     }
+
+    /**
+     * Counts the class loaders and mirror classes currently kept alive for this question and its submissions.
+     */
+    fun loaderMetrics(): LoaderMetrics {
+        val pools = typePools.livePools()
+        return LoaderMetrics(pools.size, pools.sumBy { it.mirrorClassCount })
+    }
+
+    /**
+     * Releases the classes Answerable made for this question and every submission loaded into it,
+     * so that they can be unloaded. Neither this [TestGenerator] nor its [TestRunner]s may be used afterwards,
+     * and no tests may be running when it is closed.
+     */
+    override fun close() {
+        // A dry run still going on in the background uses the classes too
+        referenceVerification.handle { _, _ -> }.join()
+        ReferenceOutputCache.forget(this)
+        typePools.closeAll()
+    }
+
+    private companion object {
+        /** Runs the dry runs of questions loaded with verifyReferenceInBackground. */
+        val verificationPool: ExecutorService by lazy {
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) { task ->
+                Thread(task, "answerable-reference-verification").apply { isDaemon = true }
+            }
+        }
+    }
 }
 
 /**
@@ -307,6 +488,25 @@ class TestGenerator(
 interface TestRunner {
     fun runTests(seed: Long, environment: TestEnvironment, testRunnerArgs: TestRunnerArgs): TestingResults
     fun runTests(seed: Long, environment: TestEnvironment): TestingResults
+
+    /**
+     * Executes a test suite, passing each [TestStep] to the [listener] as it completes rather than keeping it
+     * in [TestingResults.testSteps].
+     *
+     * By default, the whole suite is run first and its steps are then passed to the [listener], so implementations
+     * should override this to save keeping them all. Java implementations must implement this themselves or call
+     * TestRunner.DefaultImpls, since Kotlin 1.3 interfaces don't compile to Java default methods.
+     */
+    fun runTests(
+        seed: Long,
+        environment: TestEnvironment,
+        testRunnerArgs: TestRunnerArgs,
+        listener: TestStepListener
+    ): TestingResults {
+        val results = runTests(seed, environment, testRunnerArgs)
+        results.testSteps.forEach(listener::onTestStep)
+        return results.copy(testSteps = listOf(), numStreamedFailedTests = results.numFailedTests)
+    }
 }
 
 /**
@@ -323,6 +523,8 @@ fun TestRunner.runTestsUnsecured(seed: Long, testRunnerArgs: TestRunnerArgs = de
  *
  * The only publicly-exposed way to create a [PassedClassDesignRunner] is to invoke
  * [TestGenerator.loadSubmission] on an existing [TestGenerator].
+ *
+ * If the submission is reused between runs, [close] releases it once testing is done.
  */
 class PassedClassDesignRunner internal constructor(
     private val testGenerator: TestGenerator,
@@ -330,8 +532,9 @@ class PassedClassDesignRunner internal constructor(
     private val cachedClassDesignAnalysisResult: CDAResult = noCDAResult,
     private val testRunnerArgs: TestRunnerArgs, // Already merged by TestGenerator#loadSubmission
     private val bytecodeProvider: BytecodeProvider?,
-    private val timeoutOverride: Long? = null
-) : TestRunner {
+    private val timeoutOverride: Long? = null,
+    private val reuseSubmission: Boolean = false
+) : TestRunner, AutoCloseable {
 
     internal constructor(
         testGenerator: TestGenerator,
@@ -347,6 +550,113 @@ class PassedClassDesignRunner internal constructor(
         testRunnerArgs: TestRunnerArgs = defaultArgs
     ) : this(TestGenerator(referenceClass), submissionClass, cdaResult, testRunnerArgs)
 
+    /**
+     * The per-submission setup for test runs in one [environment], kept between runs if [reuseSubmission] is set.
+     */
+    private inner class PreparedSubmission(val environment: TestEnvironment) {
+        private val submissionTypePool = testGenerator.typePools.track(
+            TypePool(bytecodeProvider, submissionClass.classLoader)
+        )
+        private val untrustedSubMirror = mkOpenMirrorClass(submissionClass, submissionTypePool, "opensub_")
+        private val loader = environment.sandbox.transformLoader(submissionTypePool.getLoader())
+        private val sandboxedSubMirror = Class.forName(untrustedSubMirror.name, false, loader.getLoader())
+        val worker = TestRunWorker(testGenerator, sandboxedSubMirror, environment, loader, submissionTypePool)
+
+        // Made accessible here, but only read and written inside the sandbox since that may initialize the classes
+        private val staticFields = if (!reuseSubmission) listOf() else
+            (sandboxedSubMirror.withNestedClasses() + worker.generatorMirrorToStudentClass.withNestedClasses())
+                .flatMap { it.declaredFields.toList() }
+                .filter { Modifier.isStatic(it.modifiers) }
+                .onEach { it.isAccessible = true }
+        private var initialStaticValues: List<Pair<Any?, Any?>>? = null
+
+        /**
+         * Restores the submission's static fields to their values from the start of the first run, along with the
+         * contents of the arrays and JDK collections that they refer to.
+         * Must be called in the sandbox.
+         */
+        fun resetStaticState() {
+            val initialValues = initialStaticValues
+            if (initialValues == null) {
+                val seen = Collections.newSetFromMap(IdentityHashMap<Any, Boolean>())
+                initialStaticValues = staticFields.map { field -> field.get(null).let { it to contentsOf(it, seen) } }
+            } else {
+                staticFields.zip(initialValues).forEach { (field, initial) ->
+                    val (value, contents) = initial
+                    if (!Modifier.isFinal(field.modifiers)) field.set(null, value)
+                    restoreContents(value, contents)
+                }
+            }
+        }
+
+        /**
+         * Copies the contents of an array (and of the arrays in it) or of a JDK collection, for [restoreContents].
+         * @return the copy, or null if [value] isn't one of those or was already copied
+         */
+        private fun contentsOf(value: Any?, seen: MutableSet<Any>): Any? {
+            if (value == null || !seen.add(value)) return null
+            return when {
+                value is Array<*> -> Array(value.size) { value[it] to contentsOf(value[it], seen) }
+                value.javaClass.isArray -> ReflectArray.getLength(value).let { length ->
+                    ReflectArray.newInstance(value.javaClass.componentType, length)
+                        .also { System.arraycopy(value, 0, it, 0, length) }
+                }
+                !value.isRestorableCollection() -> null
+                value is Collection<*> -> ArrayList(value)
+                value is Map<*, *> -> LinkedHashMap(value)
+                else -> null
+            }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun restoreContents(value: Any?, contents: Any?) {
+            if (value == null || contents == null) return
+            when (value) {
+                is Array<*> -> (contents as Array<Pair<Any?, Any?>>).forEachIndexed { i, (element, elementContents) ->
+                    (value as Array<Any?>)[i] = element
+                    restoreContents(element, elementContents)
+                }
+                is MutableCollection<*> -> (value as MutableCollection<Any?>).apply {
+                    clear()
+                    addAll(contents as Collection<Any?>)
+                }
+                is MutableMap<*, *> -> (value as MutableMap<Any?, Any?>).apply {
+                    clear()
+                    putAll(contents as Map<Any?, Any?>)
+                }
+                else -> System.arraycopy(contents, 0, value, 0, ReflectArray.getLength(value))
+            }
+        }
+
+        /** Whether this is one of java.util's own modifiable collections, like an ArrayList or a HashMap. */
+        private fun Any.isRestorableCollection(): Boolean =
+            javaClass.classLoader == null && javaClass.`package`?.name == "java.util" && !javaClass.isMemberClass &&
+                (this is Collection<*> || this is Map<*, *>)
+
+        fun close() {
+            worker.close()
+            submissionTypePool.close()
+        }
+    }
+
+    private var preparedSubmission: PreparedSubmission? = null
+
+    /**
+     * Takes the kept [PreparedSubmission] for the [environment] if there is one, or prepares a new one.
+     * While a run is using it, concurrent runs will prepare their own.
+     *
+     * A kept submission only has its static fields reset, along with the arrays and java.util collections they
+     * refer to (see [PreparedSubmission.resetStaticState]). Other objects that static fields refer to, and the
+     * elements of those collections, keep whatever changes earlier runs made to them.
+     */
+    private fun takePreparedSubmission(environment: TestEnvironment): PreparedSubmission = synchronized(this) {
+        preparedSubmission?.takeIf { it.environment === environment }?.also { preparedSubmission = null }
+    } ?: PreparedSubmission(environment)
+
+    private fun keepPreparedSubmission(prepared: PreparedSubmission) {
+        synchronized(this) { preparedSubmission = prepared }
+    }
+
     /**
      * [TestRunner.runTests] override which accepts [TestRunnerArgs]. Executes a test suite.
      *
@@ -356,11 +666,37 @@ class PassedClassDesignRunner internal constructor(
      * When called with the same [seed], [runTests] will always produce the same result.
      */
     override fun runTests(seed: Long, environment: TestEnvironment, testRunnerArgs: TestRunnerArgs): TestingResults {
-        val submissionTypePool = TypePool(bytecodeProvider, submissionClass.classLoader)
-        val untrustedSubMirror = mkOpenMirrorClass(submissionClass, submissionTypePool, "opensub_")
-        val loader = environment.sandbox.transformLoader(submissionTypePool.getLoader())
-        val sandboxedSubMirror = Class.forName(untrustedSubMirror.name, false, loader.getLoader())
-        val worker = TestRunWorker(testGenerator, sandboxedSubMirror, environment, loader, submissionTypePool)
+        val collector = TestStepCollector()
+        return runTests(seed, environment, testRunnerArgs, collector, relaySteps = false)
+            .copy(testSteps = collector.testSteps)
+    }
+
+    /**
+     * [TestRunner.runTests] override which passes each [TestStep] to the [listener] as soon as it completes,
+     * instead of returning them in [TestingResults.testSteps].
+     */
+    override fun runTests(
+        seed: Long,
+        environment: TestEnvironment,
+        testRunnerArgs: TestRunnerArgs,
+        listener: TestStepListener
+    ): TestingResults = runTests(seed, environment, testRunnerArgs, listener, relaySteps = true)
+
+    /**
+     * Executes a test suite, passing the steps to the [listener].
+     * @param relaySteps whether the listener must be called outside the sandbox
+     */
+    private fun runTests(
+        seed: Long,
+        environment: TestEnvironment,
+        testRunnerArgs: TestRunnerArgs,
+        listener: TestStepListener,
+        relaySteps: Boolean
+    ): TestingResults {
+        check(!testGenerator.typePool.isClosed) { "The TestGenerator for this TestRunner has been closed" }
+        testGenerator.checkReferenceVerification()
+        val prepared = takePreparedSubmission(environment)
+        val worker = prepared.worker
         val timeLimit = timeoutOverride ?: testGenerator.timeout
 
         // Store reference class static field values so that the next run against this solution doesn't break
@@ -370,27 +706,52 @@ class PassedClassDesignRunner internal constructor(
                 it to it.get(null)
             }
 
-        val testSteps = mutableListOf<TestStep>()
         val testingBlockCounts = TestingBlockCounts()
         val startTime = System.currentTimeMillis()
 
         val mergedArgs = testRunnerArgs.applyOver(this.testRunnerArgs)
+        val resolvedArgs = mergedArgs.resolve()
+        if (resolvedArgs.invocationTimeout!! > 0) InvocationWatchdog.start()
 
         // the tests are executed here
-        val timedOut = !environment.sandbox.run(
-            if (timeLimit == 0L) null else timeLimit,
-            Runnable {
-                worker.runTests(seed, mergedArgs, testSteps, testingBlockCounts)
+        val numShards = worker.numShards(resolvedArgs)
+        // Reference outputs read from an archive are deserialized out here. See NOTE: [Reference output cache]
+        (0 until numShards).forEach { shard ->
+            testGenerator.referenceOutputKey(seed, resolvedArgs, shard, numShards)
+                ?.also { ReferenceOutputCache.prepare(testGenerator, it) }
+        }
+        val runScopedCapturer = (environment.outputCapturer as? RunScopedOutputCapturer)?.takeIf { worker.capturePrint }
+        runScopedCapturer?.beginRun()
+        val timedOut = try {
+            if (numShards == 1 && !relaySteps) {
+                !environment.sandbox.run(
+                    if (timeLimit == 0L) null else timeLimit,
+                    Runnable {
+                        if (reuseSubmission) prepared.resetStaticState()
+                        worker.runTests(seed, mergedArgs, listener, testingBlockCounts)
+                    }
+                )
+            } else {
+                runRelayed(prepared, seed, mergedArgs, numShards, timeLimit, listener, testingBlockCounts)
             }
-        )
+        } finally {
+            runScopedCapturer?.endRun()
+        }
         val endTime = System.currentTimeMillis()
 
         // Restore reference class static field values
         refStaticFieldValues.forEach { (field, value) -> field.set(null, value) }
 
+        // A run or call that was stopped may have left the submission in a broken state, so don't reuse it
+        if (reuseSubmission && !timedOut && testingBlockCounts.timedOutTests == 0) keepPreparedSubmission(prepared)
+
+        val stoppedEarly = resolvedArgs.maxFailures!! > 0 &&
+            testingBlockCounts.failedTests >= resolvedArgs.maxFailures &&
+            testingBlockCounts.numTests < resolvedArgs.numTests!!
+
         return TestingResults(
             seed = seed,
-            testRunnerArgs = mergedArgs.resolve(),
+            testRunnerArgs = resolvedArgs,
             referenceClass = testGenerator.referenceClass,
             testedClass = submissionClass,
             testedMethodName = testGenerator.usableReferenceMethod?.name,
@@ -406,16 +767,107 @@ class PassedClassDesignRunner internal constructor(
             numMixedTests = testingBlockCounts.generatedMixedTests,
             numAllGeneratedTests = testingBlockCounts.allGeneratedTests,
             classDesignAnalysisResult = cachedClassDesignAnalysisResult,
-            testSteps = synchronized(testSteps) { testSteps.toList() }
+            testSteps = listOf(),
+            stoppedEarly = stoppedEarly,
+            numRemainingTests = if (stoppedEarly) resolvedArgs.numTests!! - testingBlockCounts.numTests else 0,
+            numExecutedTests = testingBlockCounts.executedTests,
+            numStreamedFailedTests = testingBlockCounts.failedTests
         )
     }
 
+    /**
+     * Runs each shard of a test run as its own sandboxed task, and passes their steps to the [listener] on this
+     * thread as they complete, in shard order, up to the last failure allowed by [TestRunnerArgs.maxFailures].
+     * See NOTE: [Sharded test runs]
+     * @return whether any shard timed out
+     */
+    @Suppress("LongParameterList")
+    private fun runRelayed(
+        prepared: PreparedSubmission,
+        seed: Long,
+        mergedArgs: TestRunnerArgs,
+        numShards: Int,
+        timeLimit: Long,
+        listener: TestStepListener,
+        testingBlockCounts: TestingBlockCounts
+    ): Boolean {
+        val environment = prepared.environment
+        val maxFailures = mergedArgs.resolve().maxFailures!!
+        val shardFailures = AtomicIntegerArray(numShards)
+        val relays = List(numShards) { LinkedBlockingQueue<Any>() }
+        if (reuseSubmission && numShards > 1) {
+            environment.sandbox.run(null, Runnable { prepared.resetStaticState() })
+        }
+        val deadline = System.currentTimeMillis() + timeLimit
+        val shards = (0 until numShards).map { shard ->
+            shardPool.submit(
+                Callable {
+                    val relay = relays[shard]
+                    val shardBlockCounts = TestingBlockCounts()
+                    // None of this shard's steps are kept once the shards before it use up the failure budget
+                    val stopEarly = {
+                        shardFailures.set(shard, shardBlockCounts.failedTests)
+                        maxFailures > 0 && (0 until shard).sumBy { shardFailures.get(it) } >= maxFailures
+                    }
+                    val relayListener = object : TestStepListener {
+                        override fun onTestStep(step: TestStep) = relay.put(step)
+                    }
+                    // Shards that start late only get what is left of the run's time limit
+                    val timeLeft = if (timeLimit == 0L) null else deadline - System.currentTimeMillis()
+                    try {
+                        if (timeLeft != null && timeLeft <= 0) {
+                            false
+                        } else {
+                            environment.sandbox.run(
+                                timeLeft,
+                                Runnable {
+                                    if (reuseSubmission && numShards == 1) prepared.resetStaticState()
+                                    prepared.worker.runTests(
+                                        seed, mergedArgs, relayListener, shardBlockCounts, shard, numShards, stopEarly
+                                    )
+                                }
+                            )
+                        }
+                    } finally {
+                        shardFailures.set(shard, shardBlockCounts.failedTests)
+                        relay.put(EndOfShard)
+                    }
+                }
+            )
+        }
+        relays.forEach { relay ->
+            generateSequence { relay.take() }.takeWhile { it !== EndOfShard }.forEach {
+                if (maxFailures == 0 || testingBlockCounts.failedTests < maxFailures) {
+                    testingBlockCounts.record(it as TestStep)
+                    listener.onTestStep(it)
+                }
+            }
+        }
+        return shards.map { it.join() }.any { completed -> !completed }
+    }
+
     /**
      * [TestRunner.runTests] overload which uses the [TestRunnerArgs] that this [PassedClassDesignRunner]
      * was constructed with.
      */
     override fun runTests(seed: Long, environment: TestEnvironment) =
         runTests(seed, environment, this.testRunnerArgs) // to expose the overload to Java
+
+    /**
+     * Releases the submission kept for reuse between runs, if any.
+     * Later runs prepare the submission again.
+     */
+    override fun close() {
+        synchronized(this) { preparedSubmission.also { preparedSubmission = null } }?.close()
+    }
+
+    private companion object {
+        /** Runs the shards of test runs whose steps are relayed to another thread. */
+        val shardPool: ForkJoinPool by lazy { ForkJoinPool() }
+    }
+
+    /** Marks the end of a shard's steps in its relay queue. */
+    private object EndOfShard
 }
 
 internal class TestRunWorker internal constructor(
@@ -435,20 +887,28 @@ internal class TestRunWorker internal constructor(
 
     private val submissionTypePool = TypePool(bytecodeProvider, usableSubmissionClass.classLoader)
         .also { it.takeOriginalClassMappings(untrustedSubmissionTypePool, usableSubmissionClass.classLoader) }
-    private val adapterTypePool = TypePool(testGenerator.typePool, submissionTypePool)
+        .also { testGenerator.typePools.track(it) }
+    private val adapterTypePool = testGenerator.typePools.track(TypePool(testGenerator.typePool, submissionTypePool))
     private val usableSubmissionMethod =
         usableSubmissionClass.findSolutionAttemptMethod(usableReferenceMethod, usableReferenceClass)
 
+    // See NOTE: [Method handle invokers]
+    private val referenceInvoker = usableReferenceMethod?.let(::MethodInvoker)
+    private val submissionInvoker = usableSubmissionMethod?.let(::MethodInvoker)
+    private val verifierInvoker = usableCustomVerifier?.let(::MethodInvoker)
+
     private val params = testGenerator.params
     private val paramsWithReceiver = testGenerator.paramsWithReceiver
 
-    private val precondition = testGenerator.usablePrecondition
+    private val precondition = testGenerator.usablePrecondition?.let(::MethodInvoker)
 
+    // Every worker draws the reference's arguments from its own random stream and generators, which are seeded for
+    // each run, so that concurrent runs of one question don't interleave their draws
     private val testRunnerRandom = Random(0)
-    private val randomForReference = testGenerator.random
+    private val randomForReference = Random(0)
     private val randomForSubmission = Random(0)
 
-    private val generatorMirrorToStudentClass =
+    internal val generatorMirrorToStudentClass =
         if (testGenerator.usableControlClass == testGenerator.usableReferenceClass) {
             mkGeneratorMirrorClass(usableReferenceClass, usableSubmissionClass, adapterTypePool, "genmirror_")
         } else {
@@ -460,10 +920,12 @@ internal class TestRunWorker internal constructor(
             )
         }
 
-    private val referenceAtNext = testGenerator.atNextMethod
+    private val referenceAtNext = testGenerator.atNextMethod?.let(::NextInvoker)
     private val submissionAtNext = generatorMirrorToStudentClass.getAtNext(testGenerator.enabledNames)
-    private val referenceDefaultCtor = testGenerator.defaultConstructor
+        ?.let(::NextInvoker)
+    private val referenceDefaultCtor = testGenerator.defaultConstructor?.let(::ConstructorInvoker)
     private val submissionDefaultCtor = usableSubmissionClass.constructors.firstOrNull { it.parameterCount == 0 }
+        ?.let(::ConstructorInvoker)
 
     private val referenceEdgeCases = testGenerator.edgeCases
     private val referenceSimpleCases = testGenerator.simpleCases
@@ -485,14 +947,68 @@ internal class TestRunWorker internal constructor(
             )
         }
 
-    private val referenceGens = testGenerator.generators
-    private val submissionGens = generatorMirrorToStudentClass
+    private val referenceGens = testGenerator.buildGeneratorMap(randomForReference)
+    private val submissionGenerator = generatorMirrorToStudentClass
         .getEnabledGenerators(testGenerator.enabledNames)
         .find { it.returnType == usableSubmissionClass }
-        .let { testGenerator.buildGeneratorMap(randomForSubmission, it) }
+    private val submissionGens = testGenerator.buildGeneratorMap(randomForSubmission, submissionGenerator)
+
+    /**
+     * The random streams and generators that one testing loop draws from.
+     */
+    private class TestStreams(
+        val testRunnerRandom: Random,
+        val randomForReference: Random,
+        val randomForSubmission: Random,
+        val referenceGens: GeneratorMap,
+        val submissionGens: GeneratorMap,
+        numParamsWithReceiver: Int,
+        numVerifierArgs: Int
+    ) {
+        // Frames that edge and simple cases and verifier arguments are built in, reused for every test.
+        // See NOTE: [Argument frames]
+        val refCase = arrayOfNulls<Any?>(numParamsWithReceiver)
+        val subCase = arrayOfNulls<Any?>(numParamsWithReceiver)
+        val verifierArgs = arrayOfNulls<Any?>(numVerifierArgs)
+
+        fun setSeed(seed: Long) {
+            setOf(randomForReference, randomForSubmission, testRunnerRandom).forEach { it.setSeed(seed) }
+        }
+    }
+
+    @Suppress("MagicNumber")
+    private val numVerifierArgs = if (passRandomToVerify) 3 else 2
+
+    private val unshardedStreams = TestStreams(
+        testRunnerRandom,
+        randomForReference,
+        randomForSubmission,
+        referenceGens,
+        submissionGens,
+        paramsWithReceiver.size,
+        numVerifierArgs
+    )
+    private val shardStreams = ConcurrentHashMap<Int, TestStreams>()
+
+    private fun getShardStreams(shard: Int): TestStreams = shardStreams.computeIfAbsent(shard) {
+        val randomForReference = Random(0)
+        val randomForSubmission = Random(0)
+        TestStreams(
+            Random(0),
+            randomForReference,
+            randomForSubmission,
+            testGenerator.buildGeneratorMap(randomForReference),
+            testGenerator.buildGeneratorMap(randomForSubmission, submissionGenerator),
+            paramsWithReceiver.size,
+            numVerifierArgs
+        )
+    }
 
     private val receiverGenStrategy = testGenerator.receiverGenStrategy
-    private val capturePrint = usableReferenceMethod?.isPrinter() ?: false
+    val capturePrint = usableReferenceMethod?.isPrinter() ?: false
+    private val hasStaticState = testGenerator.referenceHasStaticState ||
+        (usableSubmissionClass.withNestedClasses() + generatorMirrorToStudentClass.withNestedClasses())
+            .any { it.hasStaticState() }
     private val isStatic = testGenerator.isStatic
 
     private fun calculateNumCases(cases: Map<Type, ArrayWrapper?>): Int =
@@ -504,16 +1020,20 @@ internal class TestRunWorker internal constructor(
             } ?: acc
         }
 
+    /**
+     * Fills the [case] frame, one slot for the receiver and each parameter, with the [index]th of the [total]
+     * combinations of [cases].
+     */
     private fun calculateCase(
         index: Int,
         total: Int,
         cases: Map<Type, ArrayWrapper?>,
-        backups: Map<GeneratorType, GenWrapper<*>>
-    ): Array<Any?> {
+        backups: Map<GeneratorType, GenWrapper<*>>,
+        case: Array<Any?>
+    ) {
         var segmentSize = total
         var segmentIndex = index
 
-        val case = Array<Any?>(paramsWithReceiver.size) { null }
         @Suppress("LoopWithTooManyJumpStatements")
         for (i in paramsWithReceiver.indices) {
             val param = paramsWithReceiver[i]
@@ -528,14 +1048,13 @@ internal class TestRunWorker internal constructor(
                     ?: throw IllegalStateException(
                         "Answerable thinks a receiver type is primitive. Please report a bug."
                     )
-                val typeCasesLst = typeCasesArr.filterNotNull() // receivers can't be null
+                val typeNumCases = typeCasesArr.count { it != null } // receivers can't be null
 
-                if (typeCasesLst.isEmpty()) {
+                if (typeNumCases == 0) {
                     case[0] = null
                     continue
                 }
 
-                val typeNumCases = typeCasesLst.size
                 segmentSize /= typeNumCases
                 case[i] = typeCases[segmentIndex / segmentSize]
                 segmentIndex %= segmentSize
@@ -552,7 +1071,6 @@ internal class TestRunWorker internal constructor(
                 segmentIndex %= segmentSize
             }
         }
-        return case
     }
 
     private fun mkSimpleEdgeMixedCase(
@@ -626,65 +1144,82 @@ internal class TestRunWorker internal constructor(
 
     @Suppress("LongParameterList")
     private fun testWith(
+        streams: TestStreams,
+        lazyOssification: Boolean,
+        invocationTimeout: Long,
         iteration: Int,
         testType: TestType,
         refReceiver: Any?,
         subReceiver: Any?,
         refMethodArgs: Array<Any?>,
-        subMethodArgs: Array<Any?>
+        subMethodArgs: Array<Any?>,
+        replayedRefOutput: TestOutput<Any?>?
     ): TestStep {
 
         var subProxy: Any? = null
 
         if (!isStatic) {
-            subProxy = mkProxy(usableReferenceClass, usableSubmissionClass, subReceiver!!, testGenerator.typePool)
+            // Not the reference's pool, which outlives the submission. See NOTE: [Proxy adapters]
+            subProxy = mkProxy(usableReferenceClass, usableSubmissionClass, subReceiver!!, adapterTypePool)
         }
 
-        return test(iteration, testType, refReceiver, subReceiver, subProxy, refMethodArgs, subMethodArgs)
+        return test(
+            streams, lazyOssification, invocationTimeout, iteration, testType,
+            refReceiver, subReceiver, subProxy, refMethodArgs, subMethodArgs, replayedRefOutput
+        )
     }
 
-    private fun mkRefReceiver(iteration: Int, complexity: Int, prevRefReceiver: Any?): Any? =
+    private fun mkRefReceiver(streams: TestStreams, iteration: Int, complexity: Int, prevRefReceiver: Any?): Any? =
         when (receiverGenStrategy) {
             TestGenerator.ReceiverGenStrategy.NONE -> null
-            TestGenerator.ReceiverGenStrategy.DEFAULTCONSTRUCTOR -> referenceDefaultCtor?.newInstance()
-            TestGenerator.ReceiverGenStrategy.GENERATOR -> referenceGens[GeneratorType(usableReferenceClass)]?.generate(
-                complexity
-            )
+            TestGenerator.ReceiverGenStrategy.DEFAULTCONSTRUCTOR -> referenceDefaultCtor?.invoke()
+            TestGenerator.ReceiverGenStrategy.GENERATOR ->
+                streams.referenceGens[GeneratorType(usableReferenceClass)]?.generate(
+                    complexity
+                )
             TestGenerator.ReceiverGenStrategy.NEXT -> referenceAtNext?.invoke(
-                null,
                 prevRefReceiver,
                 iteration,
-                randomForReference
+                streams.randomForReference
             )
         }
 
-    private fun mkSubReceiver(iteration: Int, complexity: Int, prevSubReceiver: Any?): Any? =
+    private fun mkSubReceiver(streams: TestStreams, iteration: Int, complexity: Int, prevSubReceiver: Any?): Any? =
         when (receiverGenStrategy) {
             TestGenerator.ReceiverGenStrategy.NONE -> null
-            TestGenerator.ReceiverGenStrategy.DEFAULTCONSTRUCTOR -> submissionDefaultCtor?.newInstance()
+            TestGenerator.ReceiverGenStrategy.DEFAULTCONSTRUCTOR -> submissionDefaultCtor?.invoke()
             TestGenerator.ReceiverGenStrategy.GENERATOR ->
-                submissionGens[GeneratorType(usableReferenceClass)]?.generate(
+                streams.submissionGens[GeneratorType(usableReferenceClass)]?.generate(
                     complexity
                 )
             TestGenerator.ReceiverGenStrategy.NEXT -> submissionAtNext?.invoke(
-                null,
                 prevSubReceiver,
                 iteration,
-                randomForSubmission
+                streams.randomForSubmission
             )
         }
 
     @Suppress("NestedBlockDepth", "LongParameterList")
     private fun test(
+        streams: TestStreams,
+        lazyOssification: Boolean,
+        invocationTimeout: Long,
         iteration: Int,
         testType: TestType,
         refReceiver: Any?,
         subReceiver: Any?,
         subProxy: Any?,
         refArgs: Array<Any?>,
-        subArgs: Array<Any?>
+        subArgs: Array<Any?>,
+        replayedRefOutput: TestOutput<Any?>?
     ): TestStep {
-        fun runOne(receiver: Any?, refCompatibleReceiver: Any?, method: Method?, args: Array<Any?>): TestOutput<Any?> {
+        fun runOne(
+            receiver: Any?,
+            refCompatibleReceiver: Any?,
+            method: MethodInvoker?,
+            args: Array<Any?>,
+            budget: Long
+        ): TestOutput<Any?> {
             var behavior: Behavior? = null
 
             var threw: Throwable? = null
@@ -692,9 +1227,9 @@ internal class TestRunWorker internal constructor(
             var errText: String? = null
             var output: Any? = null
             if (method != null) {
-                val toRun = Runnable {
+                val invoke = Runnable {
                     try {
-                        output = method(receiver, *args)
+                        output = method(receiver, args)
                         behavior = Behavior.RETURNED
                     } catch (e: InvocationTargetException) {
                         if (e.cause is ThreadDeath) throw ThreadDeath()
@@ -702,6 +1237,14 @@ internal class TestRunWorker internal constructor(
                         behavior = Behavior.THREW
                     }
                 }
+                // See NOTE: [Invocation time budgets]
+                val toRun = if (budget == 0L) invoke else Runnable {
+                    if (!InvocationWatchdog.runWithin(budget, invoke)) {
+                        output = null
+                        threw = null
+                        behavior = Behavior.TIMED_OUT
+                    }
+                }
                 if (capturePrint) {
                     environment.outputCapturer.runCapturingOutput(toRun)
                     outText = environment.outputCapturer.getStandardOut()
@@ -723,55 +1266,93 @@ internal class TestRunWorker internal constructor(
             )
         }
 
-        val refBehavior = runOne(refReceiver, refReceiver, usableReferenceMethod, refArgs)
-        val subBehavior = runOne(subReceiver, subProxy, usableSubmissionMethod, subArgs)
+        // See NOTE: [Reference output cache]
+        val refBehavior = replayedRefOutput ?: runOne(refReceiver, refReceiver, referenceInvoker, refArgs, 0L)
+        val subBehavior = runOne(subReceiver, subProxy, submissionInvoker, subArgs, invocationTimeout)
 
         var assertErr: Throwable? = null
-        try {
-            if (usableCustomVerifier == null) {
-                assertEquals(refBehavior.threw?.javaClass, subBehavior.threw?.javaClass)
-                assertEquals(refBehavior.output, subBehavior.output)
-                assertEquals(refBehavior.stdOut, subBehavior.stdOut)
-                assertEquals(refBehavior.stdErr, subBehavior.stdErr)
-            } else {
-                if (subProxy != null) {
-                    usableSubmissionClass.publicFields.forEach {
-                        usableReferenceClass.getField(it.name).set(subProxy, it.get(subReceiver))
-                    }
+        if (subBehavior.typeOfBehavior == Behavior.TIMED_OUT) {
+            assertErr = OutputMismatchError("Timed out: took longer than ${invocationTimeout}ms")
+        } else if (verifierInvoker == null) {
+            assertErr = compareOutputs(refBehavior, subBehavior)
+        } else {
+            if (subProxy != null) {
+                usableSubmissionClass.publicFields.forEach {
+                    usableReferenceClass.getField(it.name).set(subProxy, it.get(subReceiver))
                 }
-                val subBehaviorWithProxiedArgs = subBehavior.copy(
-                    args = subBehavior.args.map {
-                        mkValueProxy(it, usableReferenceClass, usableSubmissionClass, submissionTypePool)
-                    }.toTypedArray()
-                )
-                if (passRandomToVerify) {
-                    usableCustomVerifier.invoke(null, refBehavior, subBehaviorWithProxiedArgs, testRunnerRandom)
-                } else {
-                    usableCustomVerifier.invoke(null, refBehavior, subBehaviorWithProxiedArgs)
+            }
+            val subBehaviorWithProxiedArgs = subBehavior.copy(
+                args = Array(subBehavior.args.size) {
+                    mkValueProxy(subBehavior.args[it], usableReferenceClass, usableSubmissionClass, submissionTypePool)
                 }
+            )
+            val verifierArgs = streams.verifierArgs
+            verifierArgs[0] = refBehavior
+            verifierArgs[1] = subBehaviorWithProxiedArgs
+            if (passRandomToVerify) verifierArgs[2] = streams.testRunnerRandom
+            try {
+                verifierInvoker.invoke(null, verifierArgs)
+            } catch (ite: InvocationTargetException) {
+                assertErr = ite.cause
+            } finally {
+                verifierArgs.fill(null)
             }
-        } catch (ite: InvocationTargetException) {
-            assertErr = ite.cause
-        } catch (e: AssertionFailedError) {
-            assertErr = e
         }
 
+        val ossifyLater = lazyOssification && assertErr == null
         return ExecutedTestStep(
             iteration = iteration,
             testType = testType,
-            refReceiver = refReceiver.ossify(testGenerator.typePool),
-            subReceiver = subReceiver.ossify(submissionTypePool),
+            ossifiedRefReceiver = ossify(ossifyLater, testGenerator.typePool) { refReceiver.ossify(it) },
+            ossifiedSubReceiver = ossifySubmission(ossifyLater, invocationTimeout) { subReceiver.ossify(it) },
             refLiveReceiver = refReceiver,
             subDangerousLiveReceiver = subReceiver,
             succeeded = assertErr == null,
-            refOutput = refBehavior.ossify(testGenerator.typePool),
-            subOutput = subBehavior.ossify(submissionTypePool),
+            ossifiedRefOutput = ossify(ossifyLater, testGenerator.typePool) { refBehavior.ossify(it) },
+            ossifiedSubOutput = ossifySubmission(ossifyLater, invocationTimeout) { subBehavior.ossify(it) },
             refLiveOutput = refBehavior,
             subDangerousLiveOutput = subBehavior,
             assertErr = assertErr
         )
     }
 
+    /**
+     * Ossifies a trusted value with the original class names from [pool] now, or when it is first used if [later]
+     * is set. A later ossification fails once the pool has been closed, since the names are gone by then.
+     */
+    private fun <T> ossify(later: Boolean, pool: TypePool, ossify: (TypePool) -> T): Lazy<T> {
+        if (!later) return lazyOf(ossify(pool))
+        return lazy {
+            check(!pool.isClosed) { "The test step can't be ossified after its TestGenerator was closed" }
+            ossify(pool)
+        }
+    }
+
+    /**
+     * Ossifies a value from the submission now, or when it is first used if [later] is set.
+     *
+     * Stringifying the value runs submission code. A later ossification happens outside of the test run and its time
+     * limit, so it runs in the sandbox on its own, within the [invocationTimeout] if there is one or else the
+     * question's @Timeout, and fails if it doesn't finish in time.
+     */
+    private fun <T> ossifySubmission(later: Boolean, invocationTimeout: Long, ossify: (TypePool) -> T): Lazy<T> {
+        if (!later) return lazyOf(ossify(submissionTypePool))
+        return lazy {
+            check(!submissionTypePool.isClosed) {
+                "The test step can't be ossified after its TestGenerator or TestRunner was closed"
+            }
+            val timeLimit = invocationTimeout.takeIf { it > 0 } ?: testGenerator.timeout.takeIf { it > 0 }
+                ?: DEFAULT_OSSIFICATION_TIMEOUT
+            var ossified: Lazy<T>? = null
+            val completed = environment.sandbox.run(
+                timeLimit,
+                Runnable { ossified = lazyOf(ossify(submissionTypePool)) }
+            )
+            check(completed) { "Ossifying a value from the submission took longer than ${timeLimit}ms" }
+            (ossified ?: error("Ossification of a submission value did not complete")).value
+        }
+    }
+
     /* NOTE: [Testing Loop Critical Points]
 
     There are several important bits that the testing loop needs to hit. Obviously, if any particular test case fails,
@@ -788,15 +1369,67 @@ internal class TestRunWorker internal constructor(
     so those have to be saved across iterations.
 
     */
-    @Suppress("ComplexMethod", "LongMethod")
+
+    /* NOTE: [Argument frames]
+
+    Many grading threads may be testing at once, so the testing loop avoids making garbage for every test.
+    The edge and simple cases are built in place in frames owned by the test streams, with a slot for the receiver
+    followed by one for each parameter, and the verifier's arguments are passed in another reused frame. Each test only
+    allocates the argument arrays that its TestStep keeps (through the TestOutputs and DiscardedTestStep.args), since
+    listeners and lazy ossification may look at them long after the frames have moved on to later tests.
+
+    The frames are Object arrays, so a primitive argument is boxed when it is put into one, and the solution is called
+    with the boxed values. Only the generation of the arguments avoids boxing. See NOTE: [Primitive generators]
+
+    */
+
+    /* NOTE: [Sharded test runs]
+
+    A run with more than one shard splits the test schedule evenly between the shards: the number of tests of each
+    block type, the discard budget, and the position in each complexity ramp. Every shard is a separate testing loop
+    that draws from its own random streams and generators, seeded from the run seed and the shard's index, so it keeps
+    its own @Next receiver chain and its own regression receivers. Shards number their iterations from disjoint
+    ranges, and their results are merged in shard order. So a run with the same seed and the same number of shards
+    produces the same results no matter how many of its shards actually run at once. It does not reproduce the
+    unsharded run with that seed, though, since the random streams differ.
+
+    The shards share the run's time limit (its @Timeout) as a single deadline: a shard that starts after others only
+    gets the time that is left, and one that starts after the deadline counts as timed out without running. So a
+    sharded run takes no longer than an unsharded one, however many of its shards the pool runs at once.
+
+    A failure budget (TestRunnerArgs.maxFailures) applies to the merged results: they end at the last allowed failure
+    in shard order. A shard stops as soon as the shards before it have used up the budget, since none of its steps
+    could be kept anyway.
+
+    Shards may run concurrently in the same classes, so they are only independent if the tested code doesn't share
+    static state between tests. Runs of a solution or submission whose classes have static fields that could change
+    (anything but constants) therefore always run unsharded, as do methods whose output is captured, since capturing
+    output redirects the standard streams of the whole process.
+
+    */
+
+    /**
+     * The number of shards a run with [resolvedArgs] is split into. See NOTE: [Sharded test runs]
+     */
+    fun numShards(resolvedArgs: TestRunnerArgs): Int =
+        if (capturePrint || hasStaticState) 1 else resolvedArgs.numShards!!.coerceIn(1, max(1, resolvedArgs.numTests!!))
+
+    /**
+     * Runs the testing loop, or one shard of it if [numShards] is more than 1.
+     * The loop also stops once [stopEarly] returns true, which is checked after each test.
+     */
+    @Suppress("ComplexMethod", "LongMethod", "LongParameterList")
     fun runTests(
         seed: Long,
         testRunnerArgs: TestRunnerArgs,
-        testStepList: MutableList<TestStep>,
-        testingBlockCounts: TestingBlockCounts
+        listener: TestStepListener,
+        testingBlockCounts: TestingBlockCounts,
+        shard: Int = 0,
+        numShards: Int = 1,
+        stopEarly: () -> Boolean = { false }
     ) {
         val resolvedArgs = testRunnerArgs.resolve() // All properties are non-null
-        val numTests = resolvedArgs.numTests!!
+        val numTotalTests = resolvedArgs.numTests!!
         val numEdgeCombinations = calculateNumCases(referenceEdgeCases)
         val numSimpleCombinations = calculateNumCases(referenceSimpleCases)
 
@@ -814,11 +1447,50 @@ internal class TestRunWorker internal constructor(
         val numAllGeneratedTests = resolvedArgs.numAllGeneratedTests!!
         val numRegressionTests = resolvedArgs.numRegressionTests!!
 
-        val numGeneratedMixedTests: Int = numTests -
+        val numGeneratedMixedTests: Int = numTotalTests -
             numEdgeCaseTests - numSimpleCaseTests - numSimpleEdgeMixedTests -
             numRegressionTests - numAllGeneratedTests
 
-        setOf(randomForReference, randomForSubmission, testRunnerRandom).forEach { it.setSeed(seed) }
+        // This shard's part of the schedule, which is all of it when the run isn't sharded
+        fun shareOf(total: Int, ofShard: Int = shard) = shareOfShard(total, ofShard, numShards)
+        fun discardsOf(ofShard: Int) = max(1, shareOf(resolvedArgs.maxDiscards!!, ofShard).second)
+        fun generatedMixedTestsOf(ofShard: Int): Int {
+            return max(
+                0,
+                shareOf(numTotalTests, ofShard).second - shareOf(numRegressionTests, ofShard).second -
+                    shareOf(numSimpleEdgeMixedTests, ofShard).second - shareOf(numEdgeCaseTests, ofShard).second -
+                    shareOf(numSimpleCaseTests, ofShard).second - shareOf(numAllGeneratedTests, ofShard).second
+            )
+        }
+
+        val numTests = shareOf(numTotalTests).second
+        val maxDiscards = discardsOf(shard)
+        val maxFailures = resolvedArgs.maxFailures!!
+        val lazyOssification = resolvedArgs.lazyOssification!!
+        val invocationTimeout = resolvedArgs.invocationTimeout!!.toLong()
+        val (firstEdgeTest, numShardEdgeCaseTests) = shareOf(numEdgeCaseTests)
+        val (firstSimpleTest, numShardSimpleCaseTests) = shareOf(numSimpleCaseTests)
+        val numShardSimpleEdgeMixedTests = shareOf(numSimpleEdgeMixedTests).second
+        val (firstAllGeneratedTest, numShardAllGeneratedTests) = shareOf(numAllGeneratedTests)
+        val firstGeneratedMixedTest = (0 until shard).sumBy { generatedMixedTestsOf(it) }
+        val firstIteration = (0 until shard).sumBy { shareOf(numTotalTests, it).second + discardsOf(it) }
+
+        val streams = if (numShards == 1) unshardedStreams else getShardStreams(shard)
+        streams.setSeed(
+            if (numShards == 1) {
+                seed
+            } else {
+                val shardSeeds = Random(seed)
+                repeat(shard) { shardSeeds.nextLong() }
+                shardSeeds.nextLong()
+            }
+        )
+
+        // See NOTE: [Reference output cache]
+        val referenceOutputKey = testGenerator.referenceOutputKey(seed, resolvedArgs, shard, numShards)
+        val replay = referenceOutputKey?.let { ReferenceOutputCache.get(testGenerator, it) }
+        val recording = if (referenceOutputKey != null && replay == null) mutableListOf<ReferenceOutputCache.Step>()
+        else null
 
         var useRefReceiver: Any? // the receiver that should be used for the current test iteration
         var useSubReceiver: Any? // ^
@@ -829,12 +1501,17 @@ internal class TestRunWorker internal constructor(
         val regressSubReceivers: MutableList<Any?> = mutableListOf() // ^
 
         var block: TestType
-        var generatedMixedIdx = 0
-        var allGeneratedIdx = 0
+        var generatedMixedIdx = firstGeneratedMixedTest
+        var allGeneratedIdx = firstAllGeneratedTest
 
-        var i = 0
+        var i = firstIteration
         while (testingBlockCounts.numTests < numTests) {
             // TODO: Catch exceptions from generation and report the test as Behavior.GENERATION_FAILED
+            val replayStep = replay?.let {
+                it.getOrNull(i - firstIteration) ?: throw IllegalStateException(
+                    "Answerable ran out of remembered reference outputs. Please report a bug."
+                )
+            }
             val refMethodArgs: Array<Any?>
             val subMethodArgs: Array<Any?>
             @Suppress("MagicNumber")
@@ -843,65 +1520,78 @@ internal class TestRunWorker internal constructor(
                     block = TestType.Regression
 
                     // TODO: Smarter way to pick regression receivers?
-                    val receiverIx = testRunnerRandom.nextInt(regressRefReceivers.size)
+                    val receiverIx = streams.testRunnerRandom.nextInt(regressRefReceivers.size)
                     useRefReceiver = regressRefReceivers[receiverIx]
                     useSubReceiver = regressSubReceivers[receiverIx]
 
                     // TODO: Use more complex arguments?
-                    val comp = testRunnerRandom.nextInt(5) // 0 to 4, basically simple
-                    refMethodArgs = params.map { referenceGens[it]?.generate(comp) }.toTypedArray()
-                    subMethodArgs = params.map { submissionGens[it]?.generate(comp) }.toTypedArray()
+                    val comp = streams.testRunnerRandom.nextInt(5) // 0 to 4, basically simple
+                    refMethodArgs = replayStep?.args
+                        ?: Array(params.size) { streams.referenceGens[params[it]]?.generate(comp) }
+                    subMethodArgs = Array(params.size) { streams.submissionGens[params[it]]?.generate(comp) }
                 }
-                testingBlockCounts.edgeTests < numEdgeCaseTests -> {
+                testingBlockCounts.edgeTests < numShardEdgeCaseTests -> {
                     block = TestType.Edge
 
                     // if we can't exhaust the cases, duplicates are less impactful
-                    val idx = if (edgeExhaustive) (testingBlockCounts.edgeTests)
-                    else testRunnerRandom.nextInt(numEdgeCombinations)
+                    val idx = if (edgeExhaustive) (firstEdgeTest + testingBlockCounts.edgeTests)
+                    else streams.testRunnerRandom.nextInt(numEdgeCombinations)
 
-                    val refCase = calculateCase(idx, numEdgeCombinations, referenceEdgeCases, referenceGens)
-                    val subCase = calculateCase(idx, numEdgeCombinations, submissionEdgeCases, submissionGens)
+                    val refCase = streams.refCase
+                    val subCase = streams.subCase
+                    if (replayStep == null) {
+                        calculateCase(idx, numEdgeCombinations, referenceEdgeCases, streams.referenceGens, refCase)
+                    }
+                    calculateCase(idx, numEdgeCombinations, submissionEdgeCases, streams.submissionGens, subCase)
 
-                    refMethodArgs = refCase.slice(1..refCase.indices.last).toTypedArray()
-                    subMethodArgs = subCase.slice(1..subCase.indices.last).toTypedArray()
+                    refMethodArgs = replayStep?.args ?: refCase.copyOfRange(1, refCase.size)
+                    subMethodArgs = subCase.copyOfRange(1, subCase.size)
 
-                    useRefReceiver = if (refCase[0] != null) refCase[0] else mkRefReceiver(i, 0, nonRegressRefReceiver)
-                    useSubReceiver = if (subCase[0] != null) subCase[0] else mkSubReceiver(i, 0, nonRegressSubReceiver)
+                    useRefReceiver = if (refCase[0] != null) refCase[0]
+                    else mkRefReceiver(streams, i, 0, nonRegressRefReceiver)
+                    useSubReceiver = if (subCase[0] != null) subCase[0]
+                    else mkSubReceiver(streams, i, 0, nonRegressSubReceiver)
                 }
-                testingBlockCounts.simpleTests < numSimpleCaseTests -> {
+                testingBlockCounts.simpleTests < numShardSimpleCaseTests -> {
                     block = TestType.Simple
-                    val idx = if (simpleExhaustive) (testingBlockCounts.simpleTests)
-                    else testRunnerRandom.nextInt(numSimpleCombinations)
+                    val idx = if (simpleExhaustive) (firstSimpleTest + testingBlockCounts.simpleTests)
+                    else streams.testRunnerRandom.nextInt(numSimpleCombinations)
 
-                    val refCase = calculateCase(idx, numSimpleCombinations, referenceSimpleCases, referenceGens)
-                    val subCase = calculateCase(idx, numSimpleCombinations, submissionSimpleCases, submissionGens)
+                    val refCase = streams.refCase
+                    val subCase = streams.subCase
+                    if (replayStep == null) {
+                        calculateCase(idx, numSimpleCombinations, referenceSimpleCases, streams.referenceGens, refCase)
+                    }
+                    calculateCase(idx, numSimpleCombinations, submissionSimpleCases, streams.submissionGens, subCase)
 
-                    refMethodArgs = refCase.slice(1..refCase.indices.last).toTypedArray()
-                    subMethodArgs = subCase.slice(1..subCase.indices.last).toTypedArray()
+                    refMethodArgs = replayStep?.args ?: refCase.copyOfRange(1, refCase.size)
+                    subMethodArgs = subCase.copyOfRange(1, subCase.size)
 
-                    useRefReceiver = if (refCase[0] != null) refCase[0] else mkRefReceiver(i, 0, nonRegressRefReceiver)
-                    useSubReceiver = if (subCase[0] != null) subCase[0] else mkSubReceiver(i, 0, nonRegressSubReceiver)
+                    useRefReceiver = if (refCase[0] != null) refCase[0]
+                    else mkRefReceiver(streams, i, 0, nonRegressRefReceiver)
+                    useSubReceiver = if (subCase[0] != null) subCase[0]
+                    else mkSubReceiver(streams, i, 0, nonRegressSubReceiver)
                 }
-                testingBlockCounts.simpleEdgeMixedTests < numSimpleEdgeMixedTests -> {
+                testingBlockCounts.simpleEdgeMixedTests < numShardSimpleEdgeMixedTests -> {
                     block = TestType.EdgeSimpleMixed
 
-                    useRefReceiver = mkRefReceiver(i, 2, nonRegressRefReceiver)
-                    useSubReceiver = mkSubReceiver(i, 2, nonRegressSubReceiver)
+                    useRefReceiver = mkRefReceiver(streams, i, 2, nonRegressRefReceiver)
+                    useSubReceiver = mkSubReceiver(streams, i, 2, nonRegressSubReceiver)
 
-                    refMethodArgs = mkSimpleEdgeMixedCase(
+                    refMethodArgs = replayStep?.args ?: mkSimpleEdgeMixedCase(
                         referenceEdgeCases,
                         referenceSimpleCases,
-                        referenceGens,
-                        randomForReference
+                        streams.referenceGens,
+                        streams.randomForReference
                     )
                     subMethodArgs = mkSimpleEdgeMixedCase(
                         submissionEdgeCases,
                         submissionSimpleCases,
-                        submissionGens,
-                        randomForSubmission
+                        streams.submissionGens,
+                        streams.randomForSubmission
                     )
                 }
-                testingBlockCounts.allGeneratedTests < numAllGeneratedTests -> {
+                testingBlockCounts.allGeneratedTests < numShardAllGeneratedTests -> {
                     block = TestType.Generated
 
                     val comp = min(
@@ -909,11 +1599,11 @@ internal class TestRunWorker internal constructor(
                         resolvedArgs.maxComplexity
                     )
 
-                    useRefReceiver = mkRefReceiver(i, comp, nonRegressRefReceiver)
-                    useSubReceiver = mkSubReceiver(i, comp, nonRegressSubReceiver)
+                    useRefReceiver = mkRefReceiver(streams, i, comp, nonRegressRefReceiver)
+                    useSubReceiver = mkSubReceiver(streams, i, comp, nonRegressSubReceiver)
 
-                    refMethodArgs = referenceGens.generate(params, comp)
-                    subMethodArgs = submissionGens.generate(params, comp)
+                    refMethodArgs = replayStep?.args ?: streams.referenceGens.generate(params, comp)
+                    subMethodArgs = streams.submissionGens.generate(params, comp)
 
                     allGeneratedIdx++
                 }
@@ -925,22 +1615,22 @@ internal class TestRunWorker internal constructor(
                         resolvedArgs.maxComplexity
                     )
 
-                    useRefReceiver = mkRefReceiver(i, comp, nonRegressRefReceiver)
-                    useSubReceiver = mkSubReceiver(i, comp, nonRegressSubReceiver)
+                    useRefReceiver = mkRefReceiver(streams, i, comp, nonRegressRefReceiver)
+                    useSubReceiver = mkSubReceiver(streams, i, comp, nonRegressSubReceiver)
 
-                    refMethodArgs = mkGeneratedMixedCase(
+                    refMethodArgs = replayStep?.args ?: mkGeneratedMixedCase(
                         referenceEdgeCases,
                         referenceSimpleCases,
-                        referenceGens,
+                        streams.referenceGens,
                         comp,
-                        randomForReference
+                        streams.randomForReference
                     )
                     subMethodArgs = mkGeneratedMixedCase(
                         submissionEdgeCases,
                         submissionSimpleCases,
-                        submissionGens,
+                        streams.submissionGens,
                         comp,
-                        randomForSubmission
+                        streams.randomForSubmission
                     )
 
                     generatedMixedIdx++
@@ -952,51 +1642,62 @@ internal class TestRunWorker internal constructor(
                     )
             }
 
-            val preconditionMet: Boolean = (precondition?.invoke(useRefReceiver, *refMethodArgs) ?: true) as Boolean
+            if (replayStep != null) useRefReceiver = replayStep.receiver
+
+            val preconditionMet: Boolean = if (replayStep != null) replayStep.output != null
+            else (precondition?.invoke(useRefReceiver, refMethodArgs) ?: true) as Boolean
 
             val result: TestStep
             if (preconditionMet) {
-                result = testWith(i, block, useRefReceiver, useSubReceiver, refMethodArgs, subMethodArgs)
+                result = testWith(
+                    streams, lazyOssification, invocationTimeout, i, block,
+                    useRefReceiver, useSubReceiver, refMethodArgs, subMethodArgs, replayStep?.output
+                )
                 if (block != TestType.Regression) {
                     regressRefReceivers.add(useRefReceiver)
                     regressSubReceivers.add(useSubReceiver)
                     nonRegressRefReceiver = useRefReceiver
                     nonRegressSubReceiver = useSubReceiver
                 }
-                when (block) {
-                    TestType.Edge -> testingBlockCounts.edgeTests++
-                    TestType.Simple -> testingBlockCounts.simpleTests++
-                    TestType.EdgeSimpleMixed -> testingBlockCounts.simpleEdgeMixedTests++
-                    TestType.Generated -> testingBlockCounts.allGeneratedTests++
-                    TestType.GeneratedMixed -> testingBlockCounts.generatedMixedTests++
-                    TestType.Regression -> testingBlockCounts.regressionTests++
-                }
             } else {
-                // We have to increment these if the precondition fails because otherwise we
-                // will keep trying the same cases and end up killing the testing loop by discarding
-                // the same case 1000 times.
-                when (block) {
-                    TestType.Edge -> testingBlockCounts.edgeTests++
-                    TestType.Simple -> testingBlockCounts.simpleTests++
-                    else -> Unit
-                }
+                val receiver = useRefReceiver
                 result = DiscardedTestStep(
                     iteration = i,
                     testType = block,
-                    ossifiedReceiver = useRefReceiver.ossify(testGenerator.typePool),
-                    receiver = useRefReceiver,
-                    ossifiedArgs = refMethodArgs.map { it.ossify(testGenerator.typePool) }.toTypedArray(),
+                    ossifiedReceiver = ossify(lazyOssification, testGenerator.typePool) { receiver.ossify(it) },
+                    receiver = receiver,
+                    ossifiedArgs = ossify(lazyOssification, testGenerator.typePool) { pool ->
+                        Array(refMethodArgs.size) { refMethodArgs[it].ossify(pool) }
+                    },
                     args = refMethodArgs
                 )
-                testingBlockCounts.discardedTests++
-            }
-            synchronized(testStepList) {
-                testStepList.add(result)
             }
+            recording?.add(
+                ReferenceOutputCache.Step(useRefReceiver, refMethodArgs, (result as? ExecutedTestStep)?.refLiveOutput)
+            )
+            listener.onTestStep(result)
+            testingBlockCounts.record(result)
 
-            if (testingBlockCounts.discardedTests >= resolvedArgs.maxDiscards!!) break
+            if (testingBlockCounts.discardedTests >= maxDiscards) break
+            if (maxFailures > 0 && testingBlockCounts.failedTests >= maxFailures) break
+            if (stopEarly()) break
             i++
         }
+
+        val complete = testingBlockCounts.numTests >= numTests || testingBlockCounts.discardedTests >= maxDiscards
+        if (referenceOutputKey != null && recording != null && complete) {
+            ReferenceOutputCache.record(testGenerator, referenceOutputKey, recording)
+        }
+    }
+
+    fun close() {
+        adapterTypePool.close()
+        submissionTypePool.close()
+    }
+
+    private companion object {
+        /** The time limit of a lazy ossification of a submission value when the question has no time limits. */
+        const val DEFAULT_OSSIFICATION_TIMEOUT = 1000L
     }
 }
 
@@ -1037,6 +1738,13 @@ class FailedClassDesignTestRunner(
 
     override fun runTests(seed: Long, environment: TestEnvironment, testRunnerArgs: TestRunnerArgs): TestingResults =
         runTests(seed, environment)
+
+    override fun runTests(
+        seed: Long,
+        environment: TestEnvironment,
+        testRunnerArgs: TestRunnerArgs,
+        listener: TestStepListener
+    ): TestingResults = runTests(seed, environment)
 }
 
 internal class ArrayWrapper(val array: Any) {
@@ -1055,3 +1763,25 @@ internal class ArrayWrapper(val array: Any) {
 }
 
 internal fun ArrayWrapper?.isNullOrEmpty() = this == null || this.size == 0
+
+/**
+ * Splits [total] items evenly between [numShards] shards.
+ * @return the index of the first item of shard [shard], and the number of items it gets
+ */
+private fun shareOfShard(total: Int, shard: Int, numShards: Int): Pair<Int, Int> {
+    val share = total / numShards
+    val remainder = total % numShards
+    return Pair(shard * share + min(shard, remainder), share + if (shard < remainder) 1 else 0)
+}
+
+private fun Class<*>.withNestedClasses(): List<Class<*>> =
+    listOf(this) + declaredClasses.flatMap { it.withNestedClasses() }
+
+/**
+ * Whether this class has a static field that could change between tests: one that isn't a final primitive or string,
+ * an enum constant, or generated by the compiler.
+ */
+private fun Class<*>.hasStaticState(): Boolean = declaredFields.any {
+    Modifier.isStatic(it.modifiers) && !it.isSynthetic && !it.isEnumConstant &&
+        !(Modifier.isFinal(it.modifiers) && (it.type.isPrimitive || it.type == String::class.java))
+}
@@ -22,7 +22,10 @@ annotation class DefaultTestRunArguments(
     val numSimpleEdgeMixedTests: Int = -1,
     val numAllGeneratedTests: Int = -1,
     val numRegressionTests: Int = -1,
-    val maxComplexity: Int = -1
+    val maxComplexity: Int = -1,
+    val maxFailures: Int = -1,
+    val invocationTimeout: Int = -1,
+    val numShards: Int = -1
 ) {
     companion object {
         fun validate(context: ValidateContext) = context.validateAnnotation(
@@ -18,42 +18,43 @@ import java.util.Random
 /**
  * Answerable's default generator for ints.
  */
-fun defaultIntGenerator(complexity: Int, random: Random): Int = defaultIntGen(complexity, random)
+fun defaultIntGenerator(complexity: Int, random: Random): Int = defaultIntGen.generateInt(complexity, random)
 
 /**
  * Answerable's default generator for bytes.
  */
-fun defaultByteGenerator(complexity: Int, random: Random): Byte = defaultByteGen(complexity, random)
+fun defaultByteGenerator(complexity: Int, random: Random): Byte = defaultByteGen.generateByte(complexity, random)
 
 /**
  * Answerable's default generator for shorts.
  */
-fun defaultShortGenerator(complexity: Int, random: Random): Short = defaultShortGen(complexity, random)
+fun defaultShortGenerator(complexity: Int, random: Random): Short = defaultShortGen.generateShort(complexity, random)
 
 /**
  * Answerable's default generator for longs.
  */
-fun defaultLongGenerator(complexity: Int, random: Random): Long = defaultLongGen(complexity, random)
+fun defaultLongGenerator(complexity: Int, random: Random): Long = defaultLongGen.generateLong(complexity, random)
 
 /**
  * Answerable's default generator for doubles.
  */
-fun defaultDoubleGenerator(complexity: Int, random: Random): Double = defaultDoubleGen(complexity, random)
+fun defaultDoubleGenerator(complexity: Int, random: Random): Double =
+    defaultDoubleGen.generateDouble(complexity, random)
 
 /**
  * Answerable's default generator for floats.
  */
-fun defaultFloatGenerator(complexity: Int, random: Random): Float = defaultFloatGen(complexity, random)
+fun defaultFloatGenerator(complexity: Int, random: Random): Float = defaultFloatGen.generateFloat(complexity, random)
 
 /**
  * Answerable's default generator for chars. Is capable of generating some unicode characters that most fonts support.
  */
-fun defaultCharGenerator(complexity: Int, random: Random): Char = defaultCharGen(complexity, random)
+fun defaultCharGenerator(complexity: Int, random: Random): Char = defaultCharGen.generateChar(complexity, random)
 
 /**
  * Answerable's secondary generator for chars. Only produces ascii characters \32, ' ', through \254, '~'.
  */
-fun defaultAsciiGenerator(complexity: Int, random: Random): Char = defaultAsciiGen(complexity, random)
+fun defaultAsciiGenerator(complexity: Int, random: Random): Char = defaultAsciiGen.generateChar(complexity, random)
 
 /**
  * Answerable's default generator for strings. Uses [defaultCharGenerator].
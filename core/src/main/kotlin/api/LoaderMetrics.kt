@@ -0,0 +1,12 @@
+package edu.illinois.cs.cs125.answerable.api
+
+/**
+ * Counts of the class loaders and classes Answerable is keeping alive for one question.
+ *
+ * Loaders are counted until they are closed or garbage collected, so these numbers only settle after a collection.
+ * They should stay roughly constant while a question is in use; steady growth indicates a leak.
+ *
+ * @param liveLoaders the number of Answerable's class loaders for the question that haven't been unloaded
+ * @param liveMirrorClasses the number of mirror classes defined by those loaders
+ */
+data class LoaderMetrics(val liveLoaders: Int, val liveMirrorClasses: Int)
@@ -0,0 +1,40 @@
+@file:JvmName("MirrorArchive")
+package edu.illinois.cs.cs125.answerable.api
+
+import edu.illinois.cs.cs125.answerable.classmanipulation.MirrorCache
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * The mirror roles that only depend on reference classes, and so are worth archiving.
+ */
+val referenceMirrorRoles: Set<String> = setOf("openref_", "dryrunopenref_", "controlmirror_")
+
+/**
+ * Saves the mirrors Answerable has recently made of reference classes to a file.
+ *
+ * A service can call this once its questions have been loaded, and pass the file to [loadMirrorArchive]
+ * after restarting so that the reference classes don't all have to be mirrored again.
+ *
+ * @param file the archive file to write
+ * @param roles the name prefixes of the mirrors to save
+ * @return the number of mirrored outer classes saved
+ */
+@JvmOverloads
+fun saveMirrorArchive(file: File, roles: Set<String> = referenceMirrorRoles): Int {
+    return DataOutputStream(file.outputStream().buffered()).use { MirrorCache.writeArchive(it, roles) }
+}
+
+/**
+ * Loads mirrors saved by [saveMirrorArchive], so that mirroring the same classes again reuses them.
+ *
+ * Mirrors are only reused for classes whose bytecode hasn't changed.
+ * Archives saved by a different version of Answerable are ignored.
+ *
+ * @param file the archive file to read
+ * @return the number of mirrored outer classes loaded
+ */
+fun loadMirrorArchive(file: File): Int {
+    return DataInputStream(file.inputStream().buffered()).use { MirrorCache.readArchive(it) }
+}
@@ -2,6 +2,7 @@ package edu.illinois.cs.cs125.answerable.api
 
 import java.io.ByteArrayOutputStream
 import java.io.PrintStream
+import java.util.Locale
 
 /**
  * An interface that allows Answerable to run a task and capture its printed output.
@@ -30,30 +31,164 @@ interface OutputCapturer {
     fun getStandardErr(): String?
 }
 
-internal val defaultOutputCapturer = object : OutputCapturer {
+/**
+ * An [OutputCapturer] that needs to be set up once before a test run that captures output, and cleaned up after it,
+ * rather than for every task it runs. Runs may overlap.
+ */
+internal interface RunScopedOutputCapturer : OutputCapturer {
+
+    /** Prepares for a test run. */
+    fun beginRun()
+
+    /** Cleans up after a test run started with [beginRun]. */
+    fun endRun()
+}
+
+/* NOTE: [Default output capture]
+ * Rather than replacing System.out and System.err for each task, which allocates new streams every time and makes
+ * concurrent test runs race on the global streams, the default capturer installs a demultiplexing stream as each of
+ * them while any test run that captures output is going on. A thread that is running a task prints into its own
+ * reusable buffers. Every other thread prints to the stream that was installed before, as if nothing had changed.
+ *
+ * A test run installs the streams once, so its tasks only need to mark their own thread as capturing, without
+ * taking the capturer's lock. Only a task that is run while no test run is going on installs the streams itself.
+ *
+ * Threads that a task starts inherit its buffers, so what they print while the task is running is captured with the
+ * task's own output. Anything they print after the task is done goes to the stream that was installed before.
+ */
+
+/**
+ * The buffers that one thread's tasks print into.
+ */
+private class ThreadCapture {
+    val owner: Thread = Thread.currentThread()
+    val outBuffer = ByteArrayOutputStream()
+    val errBuffer = ByteArrayOutputStream()
+    val out = PrintStream(outBuffer, true, CHARSET)
+    val err = PrintStream(errBuffer, true, CHARSET)
+    @Volatile var capturing = false
+    var outText: String? = null
+    var errText: String? = null
+}
+
+private const val CHARSET = "UTF-8"
+
+private val threadCaptures = InheritableThreadLocal<ThreadCapture?>()
 
-    private var outText: String? = null
-    private var errText: String? = null
+/**
+ * Sends everything printed by a thread that is running a task to that thread's buffer (chosen by [select]),
+ * and everything else to the [original] stream. See NOTE: [Default output capture]
+ */
+@Suppress("TooManyFunctions", "SpreadOperator")
+private class DemultiplexingPrintStream(
+    val original: PrintStream,
+    private val select: (ThreadCapture) -> PrintStream
+) : PrintStream(original) {
+    private fun target(): PrintStream = threadCaptures.get()?.takeIf { it.capturing }?.let(select) ?: original
+
+    override fun write(b: Int) = target().write(b)
+    override fun write(buf: ByteArray, off: Int, len: Int) = target().write(buf, off, len)
+    override fun flush() = target().flush()
+    override fun close() {
+        // The capture buffers are reused, so a task that closes System.out must not close them for later tasks
+        target().takeIf { it === original }?.close()
+    }
+
+    override fun checkError(): Boolean = target().checkError()
+    override fun print(b: Boolean) = target().print(b)
+    override fun print(c: Char) = target().print(c)
+    override fun print(i: Int) = target().print(i)
+    override fun print(l: Long) = target().print(l)
+    override fun print(f: Float) = target().print(f)
+    override fun print(d: Double) = target().print(d)
+    override fun print(s: CharArray) = target().print(s)
+    override fun print(s: String?) = target().print(s)
+    override fun print(obj: Any?) = target().print(obj)
+    override fun println() = target().println()
+    override fun println(x: Boolean) = target().println(x)
+    override fun println(x: Char) = target().println(x)
+    override fun println(x: Int) = target().println(x)
+    override fun println(x: Long) = target().println(x)
+    override fun println(x: Float) = target().println(x)
+    override fun println(x: Double) = target().println(x)
+    override fun println(x: CharArray) = target().println(x)
+    override fun println(x: String?) = target().println(x)
+    override fun println(x: Any?) = target().println(x)
+    override fun printf(format: String, vararg args: Any?): PrintStream = target().printf(format, *args)
+    override fun printf(l: Locale?, format: String, vararg args: Any?): PrintStream = target().printf(l, format, *args)
+    override fun format(format: String, vararg args: Any?): PrintStream = target().format(format, *args)
+    override fun format(l: Locale?, format: String, vararg args: Any?): PrintStream = target().format(l, format, *args)
+    override fun append(csq: CharSequence?): PrintStream = target().append(csq)
+    override fun append(csq: CharSequence?, start: Int, end: Int): PrintStream = target().append(csq, start, end)
+    override fun append(c: Char): PrintStream = target().append(c)
+}
+
+/**
+ * The default [OutputCapturer], which captures output printed to [System.out] and [System.err].
+ * See NOTE: [Default output capture]
+ */
+internal object DefaultOutputCapturer : RunScopedOutputCapturer {
+    @Volatile private var runs = 0
+    @Volatile private var installedOut: DemultiplexingPrintStream? = null
+    @Volatile private var installedErr: DemultiplexingPrintStream? = null
+
+    private val installed: Boolean
+        get() = runs > 0 && System.out === installedOut && System.err === installedErr
+
+    @Synchronized
+    override fun beginRun() {
+        if (runs++ == 0 || System.out !== installedOut || System.err !== installedErr) {
+            installedOut = DemultiplexingPrintStream(System.out) { it.out }.also { System.setOut(it) }
+            installedErr = DemultiplexingPrintStream(System.err) { it.err }.also { System.setErr(it) }
+        }
+    }
+
+    @Synchronized
+    override fun endRun() {
+        check(runs > 0) { "endRun was called without a matching beginRun" }
+        if (--runs > 0) return
+        // If something else replaced the streams in the meantime, leave its streams in place
+        installedOut?.also { if (System.out === it) System.setOut(it.original) }
+        installedErr?.also { if (System.err === it) System.setErr(it.original) }
+        installedOut = null
+        installedErr = null
+    }
 
     override fun runCapturingOutput(code: Runnable) {
-        val oldOut = System.out
-        val oldErr = System.err
-        val newOut = ByteArrayOutputStream()
-        val newErr = ByteArrayOutputStream()
-        System.setOut(PrintStream(newOut))
-        System.setErr(PrintStream(newErr))
+        // During a test run, the streams stay installed until the run is done
+        if (installed) {
+            capture(code)
+            return
+        }
+        beginRun()
+        try {
+            capture(code)
+        } finally {
+            endRun()
+        }
+    }
+
+    private fun capture(code: Runnable) {
+        // A thread started by a task inherits the task's buffers, but its own tasks need their own
+        val capture = threadCaptures.get()?.takeIf { it.owner === Thread.currentThread() }
+            ?: ThreadCapture().also { threadCaptures.set(it) }
+        capture.outBuffer.reset()
+        capture.errBuffer.reset()
+        capture.capturing = true
         try {
             code.run()
         } finally {
-            System.setOut(oldOut)
-            System.setErr(oldErr)
-            outText = newOut.toString("UTF8")
-            errText = newErr.toString("UTF8")
-            newOut.close()
-            newErr.close()
+            capture.capturing = false
+            capture.outText = capture.outBuffer.toString(CHARSET)
+            capture.errText = capture.errBuffer.toString(CHARSET)
         }
     }
 
-    override fun getStandardOut() = outText
-    override fun getStandardErr() = errText
+    override fun getStandardOut(): String? = ownCapture()?.outText
+
+    override fun getStandardErr(): String? = ownCapture()?.errText
+
+    private fun ownCapture(): ThreadCapture? = threadCaptures.get()?.takeIf { it.owner === Thread.currentThread() }
 }
+
+internal val defaultOutputCapturer: OutputCapturer = DefaultOutputCapturer
@@ -0,0 +1,35 @@
+@file:JvmName("ReferenceOutputArchive")
+package edu.illinois.cs.cs125.answerable.api
+
+import edu.illinois.cs.cs125.answerable.testing.ReferenceOutputCache
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Saves the reference outputs that questions loaded with `cacheReferenceOutputs` have recently remembered to a file.
+ *
+ * A service can call this after grading, and pass the file to [loadReferenceOutputArchive] after restarting so that
+ * grading with the same seeds doesn't have to run the reference solutions again. Only runs whose outputs and
+ * arguments are [java.io.Serializable] are saved.
+ *
+ * @param file the archive file to write
+ * @return the number of test runs saved
+ */
+fun saveReferenceOutputArchive(file: File): Int {
+    return DataOutputStream(file.outputStream().buffered()).use { ReferenceOutputCache.writeArchive(it) }
+}
+
+/**
+ * Loads reference outputs saved by [saveReferenceOutputArchive], so that test runs of questions loaded with
+ * `cacheReferenceOutputs` can replay them.
+ *
+ * Outputs are only replayed for reference classes whose bytecode hasn't changed.
+ * Archives saved by a different version of Answerable are ignored.
+ *
+ * @param file the archive file to read
+ * @return the number of test runs loaded
+ */
+fun loadReferenceOutputArchive(file: File): Int {
+    return DataInputStream(file.inputStream().buffered()).use { ReferenceOutputCache.readArchive(it) }
+}
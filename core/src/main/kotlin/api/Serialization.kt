@@ -52,6 +52,9 @@ fun CDAResult.toJson(): String =
 fun TestingResults.toJson(): String =
     serializer.adapter(TestingResults::class.java).toJson(this)
 
+fun TestStep.toJson(): String =
+    serializer.adapter(TestStep::class.java).toJson(this)
+
 /*
  * ADAPTERS:
  *
@@ -184,6 +187,8 @@ internal class TestingResultsAdapter {
         val startTime: Long,
         val endTime: Long,
         val timedOut: Boolean,
+        val stoppedEarly: Boolean,
+        val numRemainingTests: Int,
         val numDiscardedTests: Int,
         val numTests: Int,
         val numEdgeCaseTests: Int,
@@ -191,6 +196,8 @@ internal class TestingResultsAdapter {
         val numSimpleAndEdgeCaseTests: Int,
         val numMixedTests: Int,
         val numAllGeneratedTests: Int,
+        val numExecutedTests: Int,
+        val numFailedTests: Int,
         val classDesignAnalysisResult: CDAResult,
         val testSteps: List<TestStep>
     ) {
@@ -203,6 +210,8 @@ internal class TestingResultsAdapter {
             testingResults.startTime,
             testingResults.endTime,
             testingResults.timedOut,
+            testingResults.stoppedEarly,
+            testingResults.numRemainingTests,
             testingResults.numDiscardedTests,
             testingResults.numTests,
             testingResults.numEdgeCaseTests,
@@ -210,6 +219,8 @@ internal class TestingResultsAdapter {
             testingResults.numSimpleAndEdgeCaseTests,
             testingResults.numMixedTests,
             testingResults.numAllGeneratedTests,
+            testingResults.numExecutedTests,
+            testingResults.numFailedTests,
             testingResults.classDesignAnalysisResult,
             testingResults.testSteps
         )
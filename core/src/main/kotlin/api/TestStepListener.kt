@@ -0,0 +1,88 @@
+package edu.illinois.cs.cs125.answerable.api
+
+import edu.illinois.cs.cs125.answerable.testing.DiscardedTestStep
+import edu.illinois.cs.cs125.answerable.testing.ExecutedTestStep
+import edu.illinois.cs.cs125.answerable.testing.TestStep
+import java.io.Writer
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Receives each [TestStep] of a test run as soon as it completes, so that applications can show progress or save
+ * the steps while the tests are still running instead of keeping all of them in memory.
+ *
+ * Steps are delivered in order, from the thread that called
+ * [TestRunner.runTests][edu.illinois.cs.cs125.answerable.TestRunner.runTests], outside the sandbox.
+ */
+interface TestStepListener {
+
+    /**
+     * Called when a test step completes.
+     * @param step the completed step
+     */
+    fun onTestStep(step: TestStep)
+}
+
+/**
+ * A [TestStepListener] that keeps the steps accepted by [keep].
+ */
+class TestStepCollector @JvmOverloads constructor(
+    private val keep: (TestStep) -> Boolean = { true }
+) : TestStepListener {
+    private val steps = mutableListOf<TestStep>()
+
+    /** The steps kept so far. */
+    val testSteps: List<TestStep>
+        get() = synchronized(steps) { steps.toList() }
+
+    override fun onTestStep(step: TestStep) {
+        if (keep(step)) synchronized(steps) { steps.add(step) }
+    }
+
+    companion object {
+        /**
+         * Makes a [TestStepCollector] that only keeps the steps of failed tests.
+         */
+        @JvmStatic
+        fun failuresOnly() = TestStepCollector { it is ExecutedTestStep && !it.succeeded }
+    }
+}
+
+/**
+ * A [TestStepListener] that only counts the steps, e.g. to report progress from another thread.
+ */
+class TestStepCounter : TestStepListener {
+    private val steps = AtomicInteger()
+    private val discardedSteps = AtomicInteger()
+    private val failedSteps = AtomicInteger()
+
+    /** The number of steps so far. */
+    val numSteps: Int
+        get() = steps.get()
+
+    /** The number of steps so far whose test case was discarded. */
+    val numDiscardedTests: Int
+        get() = discardedSteps.get()
+
+    /** The number of steps so far whose test failed. */
+    val numFailedTests: Int
+        get() = failedSteps.get()
+
+    override fun onTestStep(step: TestStep) {
+        if (step is DiscardedTestStep) discardedSteps.incrementAndGet()
+        if (step is ExecutedTestStep && !step.succeeded) failedSteps.incrementAndGet()
+        steps.incrementAndGet()
+    }
+}
+
+/**
+ * A [TestStepListener] that writes each step to the [writer] as a line of JSON, in the same format as
+ * the [TestingResults.testSteps][edu.illinois.cs.cs125.answerable.testing.TestingResults.testSteps]
+ * of a serialized test run.
+ */
+class JsonTestStepWriter(private val writer: Writer) : TestStepListener {
+    override fun onTestStep(step: TestStep) {
+        writer.write(step.toJson())
+        writer.write("\n")
+        writer.flush()
+    }
+}
@@ -0,0 +1,215 @@
+package edu.illinois.cs.cs125.answerable.classmanipulation
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.lang.reflect.Modifier
+
+/* NOTE: [Streaming open mirrors]
+ * Open mirrors only need to rename classes and strip `final`, neither of which changes the layout of anything
+ * after the constant pool. So instead of building a BCEL ClassGen, the class file is scanned once to find the
+ * constant pool entries and flag words involved, then written out in one pass: the constant pool with the affected
+ * Utf8 constants replaced, and the remainder copied verbatim except for the patched flags.
+ * Generator mirrors drop and rebuild methods and rewrite instruction operands, so they still go through BCEL.
+ */
+
+/**
+ * The output of [rewriteOpenClass].
+ * @param bytes the rewritten class file
+ * @param innerClasses slash names of the (original) inner classes of the outermost class mentioned by this class
+ */
+internal class RewrittenClass(val bytes: ByteArray, val innerClasses: List<String>)
+
+private const val CONSTANT_UTF8 = 1
+private const val CONSTANT_INTEGER = 3
+private const val CONSTANT_FLOAT = 4
+private const val CONSTANT_LONG = 5
+private const val CONSTANT_DOUBLE = 6
+private const val CONSTANT_CLASS = 7
+private const val CONSTANT_STRING = 8
+private const val CONSTANT_FIELDREF = 9
+private const val CONSTANT_METHODREF = 10
+private const val CONSTANT_INTERFACE_METHODREF = 11
+private const val CONSTANT_NAME_AND_TYPE = 12
+private const val CONSTANT_METHOD_HANDLE = 15
+private const val CONSTANT_METHOD_TYPE = 16
+private const val CONSTANT_DYNAMIC = 17
+private const val CONSTANT_INVOKE_DYNAMIC = 18
+private const val CONSTANT_MODULE = 19
+private const val CONSTANT_PACKAGE = 20
+
+private const val CONSTANT_POOL_START = 10
+private const val ROLE_CLASS_NAME = 1
+private const val ROLE_DESCRIPTOR = 2
+
+/**
+ * Renames classes in a class file and strips `final` from the class, its methods, and its inner classes.
+ *
+ * @param bytes the original class file
+ * @param baseSlashName the slash name of the outermost class being mirrored
+ * @param classRenames slash names of classes to rename, mapped to their replacements;
+ *   inner classes of a renamed class are renamed along with it
+ * @return the rewritten class file
+ */
+@Suppress("ComplexMethod", "LongMethod", "MagicNumber")
+internal fun rewriteOpenClass(
+    bytes: ByteArray,
+    baseSlashName: String,
+    classRenames: Map<String, String>
+): RewrittenClass {
+    val reader = ClassFileReader(bytes)
+
+    // Locate every constant and note which Utf8 constants hold class names or descriptors
+    val constantCount = reader.u2(CONSTANT_POOL_START - 2)
+    val offsets = IntArray(constantCount)
+    val tags = ByteArray(constantCount)
+    val roles = ByteArray(constantCount)
+    fun markRole(utf8Idx: Int, role: Int) {
+        roles[utf8Idx] = (roles[utf8Idx].toInt() or role).toByte()
+    }
+    var pos = CONSTANT_POOL_START
+    var idx = 1
+    while (idx < constantCount) {
+        val tag = bytes[pos].toInt()
+        offsets[idx] = pos
+        tags[idx] = tag.toByte()
+        pos += 1 + when (tag) {
+            CONSTANT_UTF8 -> 2 + reader.u2(pos + 1)
+            CONSTANT_CLASS -> 2.also { markRole(reader.u2(pos + 1), ROLE_CLASS_NAME) }
+            CONSTANT_NAME_AND_TYPE -> 4.also { markRole(reader.u2(pos + 3), ROLE_DESCRIPTOR) }
+            CONSTANT_STRING, CONSTANT_METHOD_TYPE, CONSTANT_MODULE, CONSTANT_PACKAGE -> 2
+            CONSTANT_METHOD_HANDLE -> 3
+            CONSTANT_INTEGER, CONSTANT_FLOAT, CONSTANT_FIELDREF, CONSTANT_METHODREF, CONSTANT_INTERFACE_METHODREF,
+            CONSTANT_DYNAMIC, CONSTANT_INVOKE_DYNAMIC -> 4
+            CONSTANT_LONG, CONSTANT_DOUBLE -> 8
+            else -> throw ClassFormatError("Unknown constant pool tag $tag at index $idx")
+        }
+        idx += if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) 2 else 1
+    }
+    val constantPoolEnd = pos
+
+    // Walk the rest of the class, noting flag words to patch and the inner class table
+    val flagPatches = mutableMapOf<Int, Int>()
+    val innerClasses = mutableListOf<String>()
+    fun stripFinal(flagsPos: Int) {
+        val flags = reader.u2(flagsPos)
+        if (Modifier.isFinal(flags)) flagPatches[flagsPos] = flags and Modifier.FINAL.inv()
+    }
+    fun utf8At(constantIdx: Int): String = reader.utf8(offsets[constantIdx])
+    fun className(classIdx: Int): String? {
+        if (classIdx == 0 || tags[classIdx].toInt() != CONSTANT_CLASS) return null
+        return utf8At(reader.u2(offsets[classIdx] + 1))
+    }
+    fun skipAttributes(attributesPos: Int, visit: (name: String, start: Int) -> Unit = { _, _ -> }): Int {
+        var attrPos = attributesPos + 2
+        repeat(reader.u2(attributesPos)) {
+            visit(utf8At(reader.u2(attrPos)), attrPos + 6)
+            attrPos += 6 + reader.u4(attrPos + 2)
+        }
+        return attrPos
+    }
+    fun members(membersPos: Int, isMethod: Boolean): Int {
+        var memberPos = membersPos + 2
+        repeat(reader.u2(membersPos)) {
+            if (isMethod) stripFinal(memberPos)
+            markRole(reader.u2(memberPos + 4), ROLE_DESCRIPTOR)
+            memberPos = skipAttributes(memberPos + 6)
+        }
+        return memberPos
+    }
+
+    stripFinal(constantPoolEnd)
+    pos = constantPoolEnd + 6
+    pos += 2 + 2 * reader.u2(pos)
+    pos = members(pos, isMethod = false)
+    pos = members(pos, isMethod = true)
+    skipAttributes(pos) { name, start ->
+        if (name != "InnerClasses") return@skipAttributes
+        repeat(reader.u2(start)) { i ->
+            val entryPos = start + 2 + i * 8
+            val innerName = className(reader.u2(entryPos)) ?: return@repeat
+            if (innerName.startsWith("$baseSlashName$")) {
+                stripFinal(entryPos + 6)
+                innerClasses.add(innerName)
+            }
+        }
+    }
+
+    // Write the new constant pool, then everything else with flags patched
+    val output = ByteArrayOutputStream(bytes.size + bytes.size / 4)
+    output.write(bytes, 0, CONSTANT_POOL_START)
+    val data = DataOutputStream(output)
+    var copyFrom = CONSTANT_POOL_START
+    for (i in 1 until constantCount) {
+        val role = roles[i].toInt()
+        if (role == 0 || tags[i].toInt() != CONSTANT_UTF8) continue
+        val original = utf8At(i)
+        var renamed = original
+        if (role and ROLE_CLASS_NAME != 0) renamed = renameClass(renamed, classRenames)
+        if (role and ROLE_DESCRIPTOR != 0) renamed = renameDescriptor(renamed, classRenames)
+        if (renamed == original) continue
+        output.write(bytes, copyFrom, offsets[i] - copyFrom)
+        data.writeByte(CONSTANT_UTF8)
+        data.writeUTF(renamed)
+        copyFrom = offsets[i] + 3 + reader.u2(offsets[i] + 1)
+    }
+    flagPatches.keys.sorted().forEach { flagsPos ->
+        output.write(bytes, copyFrom, flagsPos - copyFrom)
+        data.writeShort(flagPatches.getValue(flagsPos))
+        copyFrom = flagsPos + 2
+    }
+    output.write(bytes, copyFrom, bytes.size - copyFrom)
+
+    return RewrittenClass(output.toByteArray(), innerClasses)
+}
+
+/**
+ * Renames the class named by a Class constant, which is either a plain slash name or an array descriptor.
+ */
+private fun renameClass(className: String, classRenames: Map<String, String>): String {
+    if (className.contains(';')) return renameDescriptor(className, classRenames)
+    return renameSlashName(className, classRenames) ?: className
+}
+
+/**
+ * Renames all class mentions in a field or method descriptor.
+ */
+private fun renameDescriptor(descriptor: String, classRenames: Map<String, String>): String {
+    var builder: StringBuilder? = null
+    var copied = 0
+    var pos = 0
+    while (pos < descriptor.length) {
+        val start = pos++
+        if (descriptor[start] != 'L') continue
+        while (pos < descriptor.length && descriptor[pos] != ';') pos++
+        val renamed = renameSlashName(descriptor.substring(start + 1, pos), classRenames) ?: continue
+        builder = builder ?: StringBuilder(descriptor.length + renamed.length)
+        builder.append(descriptor, copied, start + 1).append(renamed)
+        copied = pos
+    }
+    return builder?.append(descriptor, copied, descriptor.length)?.toString() ?: descriptor
+}
+
+/**
+ * Renames a slash name if it or its outermost class is being renamed, or returns null if it isn't.
+ */
+private fun renameSlashName(name: String, classRenames: Map<String, String>): String? {
+    classRenames[name]?.let { return it }
+    val outerEnd = name.indexOf('$')
+    if (outerEnd == -1) return null
+    return classRenames[name.substring(0, outerEnd)]?.let { it + name.substring(outerEnd) }
+}
+
+private class ClassFileReader(private val bytes: ByteArray) {
+    @Suppress("MagicNumber")
+    fun u2(pos: Int): Int = (bytes[pos].toInt() and 0xFF shl 8) or (bytes[pos + 1].toInt() and 0xFF)
+
+    @Suppress("MagicNumber")
+    fun u4(pos: Int): Int = (u2(pos) shl 16) or u2(pos + 2)
+
+    /**
+     * Decodes the (modified UTF-8) Utf8 constant whose tag is at [pos].
+     */
+    fun utf8(pos: Int): String = DataInputStream(ByteArrayInputStream(bytes, pos + 1, u2(pos + 1) + 2)).readUTF()
+}
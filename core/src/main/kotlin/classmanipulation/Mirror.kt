@@ -14,6 +14,7 @@ import edu.illinois.cs.cs125.answerable.classdesignanalysis.simpleName
 import edu.illinois.cs.cs125.answerable.dotName
 import edu.illinois.cs.cs125.answerable.slashName
 import org.apache.bcel.Const
+import org.apache.bcel.classfile.ClassParser
 import org.apache.bcel.classfile.ConstantCP
 import org.apache.bcel.classfile.ConstantClass
 import org.apache.bcel.classfile.ConstantFieldref
@@ -44,31 +45,59 @@ import java.lang.reflect.Constructor
 import java.lang.reflect.Field
 import java.lang.reflect.Member
 import java.lang.reflect.Modifier
-import java.util.UUID
 
 // [Note: "scalar"]
 // The "scalar" of a type is the underlying type of a nested array type; or just the type if it is not an array type.
 // Ex: the scalar of int[] is int, the scalar of Object[][] is Object, the scalar of String is String.
 /**
- * Mirrors one class, which may be an inner class. (Recursive helper for mkGeneratorMirrorClass.)
+ * Mirrors one class, which may be an inner class, and defers mirroring the inner classes it mentions.
+ * (Recursive helper for mkGeneratorMirrorClass.)
  * @param baseClass the class to mirror
  * @param referenceClass the original, outermost reference class
  * @param targetClass the original, outermost submission class (to generate instances of)
  * @param mirrorName the desired fully-qualified dot name of the mirror class
- * @param mirrorsMade the map of names to finished mirrors
- * @param pool the type pool to get bytecode from
- * @return the mirrored class
+ * @param pool the type pool to get bytecode from and defer inner class mirrors in
+ * @param cacheEntry the mirror cache entry for the whole mirroring operation
+ * @param input the bytecode of [baseClass]
+ * @return the bytecode of the mirrored class
  */
-@Suppress("ComplexMethod", "NestedBlockDepth", "ReturnCount", "LongParameterList")
-private fun mkGeneratorMirrorClass(
+@Suppress("LongParameterList")
+private fun mkGeneratorMirrorBytes(
     baseClass: Class<*>,
     referenceClass: Class<*>,
     targetClass: Class<*>,
     mirrorName: String,
-    mirrorsMade: MutableMap<String, Class<*>>,
-    pool: TypePool
-): Class<*> {
-    mirrorsMade[mirrorName]?.let { return it }
+    pool: TypePool,
+    cacheEntry: MirrorCache.Entry,
+    input: ByteArray = pool.getBytecodeForClass(baseClass)
+): ByteArray {
+    val mirrored = cacheEntry.getOrPut(mirrorName, input) {
+        mkGeneratorMirrorClassFile(baseClass, referenceClass, targetClass, mirrorName, input)
+    }
+    pool.deferInnerMirrors(mirrorName, mirrored.innerClasses) { inner, innerMirrorName ->
+        mkGeneratorMirrorBytes(inner, referenceClass, targetClass, innerMirrorName, pool, cacheEntry)
+    }
+    return mirrored.bytes
+}
+
+/**
+ * Mirrors one class with BCEL. (Helper for mkGeneratorMirrorBytes.)
+ * @param baseClass the class to mirror
+ * @param referenceClass the original, outermost reference class
+ * @param targetClass the original, outermost submission class (to generate instances of)
+ * @param mirrorName the desired fully-qualified dot name of the mirror class
+ * @param input the bytecode of [baseClass]
+ * @return the bytecode of the mirrored class, and the inner classes of [baseClass] that need to be mirrored too
+ */
+@Suppress("ComplexMethod", "NestedBlockDepth", "ReturnCount", "LongMethod")
+private fun mkGeneratorMirrorClassFile(
+    baseClass: Class<*>,
+    referenceClass: Class<*>,
+    targetClass: Class<*>,
+    mirrorName: String,
+    input: ByteArray
+): RewrittenClass {
+    val innerClasses = mutableListOf<String>()
 
     val refLName = "L${referenceClass.slashName()};"
     val subLName = "L${targetClass.slashName()};"
@@ -76,7 +105,7 @@ private fun mkGeneratorMirrorClass(
     val refLBase = "L${referenceClass.slashName()}$"
     val mirrorLBase = "L${mirrorSlashName.split("$", limit = 2)[0]}$"
 
-    val classGen = ClassGen(pool.getBcelClassForClass(baseClass))
+    val classGen = ClassGen(ClassParser(input.inputStream(), baseClass.name).parse())
     val constantPoolGen = classGen.constantPool
     val constantPool = constantPoolGen.constantPool
 
@@ -209,12 +238,9 @@ private fun mkGeneratorMirrorClass(
     fun handleConstantClass(constant: ConstantClass) {
         val name = constant.getBytes(constantPool)
         if (name.startsWith("${baseClass.slashName()}\$")) {
-            // if the referred class is an inner class of the current class, recurse and make mirrors in it as well.
-            val inner = pool.classForName(name.dotName())
-            val innerMirror = mkGeneratorMirrorClass(
-                inner, referenceClass, targetClass, fixOuterClassName(name), mirrorsMade, pool
-            )
-            constantPoolGen.setConstant(constant.nameIndex, ConstantUtf8(innerMirror.slashName()))
+            // if the referred class is an inner class of the current class, make mirrors of it as well.
+            innerClasses.add(name)
+            constantPoolGen.setConstant(constant.nameIndex, ConstantUtf8(fixOuterClassName(name).slashName()))
         } else if (name.startsWith("${referenceClass.slashName()}\$")) {
             // inner class of the outermost class, which is not inside of the current inner class.
             // Shouldn't merge this with the above condition
@@ -300,8 +326,29 @@ private fun mkGeneratorMirrorClass(
             nestMembers.classNames.map { constantPoolGen.addClass(fixOuterClassName(it)) }.toIntArray()
     }
 
-    // classGen.javaClass.dump("Fiddled${mirrorsMade.size}.class") // Uncomment for debugging
-    return pool.loadMirrorBytes(mirrorName, classGen.javaClass, baseClass).also { mirrorsMade[mirrorName] = it }
+    // classGen.javaClass.dump("Fiddled$mirrorName.class") // Uncomment for debugging
+    return RewrittenClass(classGen.javaClass.bytes, innerClasses)
+}
+
+/**
+ * Arranges for the mirrors of inner classes to be made when they are first loaded.
+ * @param mirrorName the dot name of the mirror class that mentions the inner classes
+ * @param innerClasses slash names of the original inner classes
+ * @param mkInnerMirror makes the bytecode of the mirror of an inner class, given the inner class and the mirror name
+ */
+private fun TypePool.deferInnerMirrors(
+    mirrorName: String,
+    innerClasses: List<String>,
+    mkInnerMirror: (Class<*>, String) -> ByteArray
+) {
+    val mirrorBase = mirrorName.split('$', limit = 2)[0]
+    innerClasses.forEach { innerName ->
+        val innerMirrorName = "$mirrorBase\$${innerName.split('$', limit = 2)[1]}"
+        deferMirror(innerMirrorName) {
+            val inner = classForName(innerName.dotName())
+            mkInnerMirror(inner, innerMirrorName) to inner
+        }
+    }
 }
 
 private val generationAnnotationTypes: Set<Class<out Annotation>> =
@@ -319,6 +366,10 @@ private val verifyAnnotationType: Set<Class<out Annotation>> = setOf(Verify::cla
  * Creates a mirror class containing copies of generators from the [originalClass], retargeted
  * so that references to the [originalClass] have been replaced with references to the [targetClass].
  *
+ * The mirror is named deterministically (see NOTE: [Deterministic mirror names]), and if the same class was
+ * recently mirrored the same way, the finished bytecode is reused from the [MirrorCache].
+ * Inner classes are only mirrored once they are loaded.
+ *
  * @param originalClass the original reference class
  * @param targetClass the class the generators should refer to instead of [originalClass]
  * @param pool the type pool to get bytecode from
@@ -330,10 +381,12 @@ internal fun mkGeneratorMirrorClass(
     pool: TypePool = TypePool(),
     namePrefix: String = "m"
 ): Class<*> {
-    return mkGeneratorMirrorClass(
-        originalClass, originalClass, targetClass,
-        "answerablemirror.$namePrefix" + UUID.randomUUID().toString().replace("-", ""), mutableMapOf(), pool
-    )
+    val input = pool.getBytecodeForClass(originalClass)
+    val renames = mapOf(originalClass.name to targetClass.name)
+    val cacheEntry = MirrorCache.entryFor(MirrorCache.Key("generator", namePrefix, input.digest(), renames), pool)
+    val mirrorName = cacheEntry.mirrorName
+    val bytes = mkGeneratorMirrorBytes(originalClass, originalClass, targetClass, mirrorName, pool, cacheEntry, input)
+    return pool.loadMirrorBytes(mirrorName, bytes, originalClass)
 }
 
 /**
@@ -349,6 +402,11 @@ internal fun mkOpenMirrorClass(clazz: Class<*>, pool: TypePool, namePrefix: Stri
 
 /**
  * Creates a renamed open mirror, with the specified class references remapped.
+ *
+ * The mirror is named deterministically (see NOTE: [Deterministic mirror names]), and if the same class was
+ * recently mirrored the same way, the finished bytecode is reused from the [MirrorCache].
+ * Inner classes are only mirrored once they are loaded.
+ *
  * @param clazz an outer class
  * @param classRenames replacements to make (current class to replacement class)
  * @param pool the type pool to get bytecode from and load classes into
@@ -361,12 +419,15 @@ internal fun mkOpenMirrorClass(
     pool: TypePool,
     namePrefix: String = "o"
 ): Class<*> {
-    val newName = "answerablemirror.$namePrefix" + UUID.randomUUID().toString().replace("-", "")
-    val allRenames = classRenames
-        .map { (inClass, outClass) -> Pair(inClass.name, outClass.name) }
+    val input = pool.getBytecodeForClass(clazz)
+    val renames = classRenames.map { (inClass, outClass) -> Pair(inClass.name, outClass.name) }
+    val cacheEntry = MirrorCache.entryFor(MirrorCache.Key("open", namePrefix, input.digest(), renames.toMap()), pool)
+    val newName = cacheEntry.mirrorName
+    val allRenames = renames
         .plus(Pair(clazz.name, newName))
         .map { Pair(it.first.replace('.', '/'), it.second.replace('.', '/')) }
-    return mkOpenMirrorClass(clazz, clazz, newName, allRenames.toMap(), mutableListOf(), pool)!!
+    val bytes = mkOpenMirrorBytes(clazz, clazz, newName, allRenames.toMap(), pool, cacheEntry, input)
+    return pool.loadMirrorBytes(newName, bytes, clazz)
 }
 
 /**
@@ -375,96 +436,33 @@ internal fun mkOpenMirrorClass(
  * @param baseClass the outer class of the class to transform (may be the same as clazz)
  * @param newName the new name for the transformed equivalent of clazz
  * @param classRenames all class renames to perform
- * @param alreadyDone list of names of classes already processed (to avoid infinite recursion)
- * @param pool the type pool to get bytecode from and load classes into
- * @return the transformed version of clazz, or null if it was already handled by a different call
+ * @param pool the type pool to get bytecode from and defer inner class mirrors in
+ * @param cacheEntry the mirror cache entry for the whole mirroring operation
+ * @param input the bytecode of [clazz]
+ * @return the bytecode of the transformed version of clazz
  */
-@Suppress("ComplexMethod", "LongParameterList", "NestedBlockDepth")
-private fun mkOpenMirrorClass(
+@Suppress("LongParameterList")
+private fun mkOpenMirrorBytes(
     clazz: Class<*>,
     baseClass: Class<*>,
     newName: String,
     classRenames: Map<String, String>,
-    alreadyDone: MutableList<String>,
-    pool: TypePool
-): Class<*>? {
-    if (alreadyDone.contains(newName)) return null
-    alreadyDone.add(newName)
-
-    // Get a mutable ClassGen, initialized as a copy of the existing class
-    val classGen = ClassGen(pool.getBcelClassForClass(clazz))
-    val constantPoolGen = classGen.constantPool
-    val constantPool = constantPoolGen.constantPool
-
-    // Strip `final` off the class and its methods
-    if (Modifier.isFinal(classGen.modifiers)) classGen.modifiers -= Modifier.FINAL
-    classGen.methods.forEach { method ->
-        if (Modifier.isFinal(method.modifiers)) method.modifiers -= Modifier.FINAL
-    }
-
-    // Recursively mirror inner classes
-    val newBase = newName.split('$', limit = 2)[0]
-    classGen.attributes.filterIsInstance<InnerClasses>().firstOrNull()?.innerClasses?.forEach { innerClass ->
-        val innerName =
-            (constantPool.getConstant(innerClass.innerClassIndex) as? ConstantClass)?.getBytes(constantPool)
-                ?: return@forEach
-        if (innerName.startsWith(baseClass.slashName() + "$")) {
-            if (Modifier.isFinal(innerClass.innerAccessFlags)) innerClass.innerAccessFlags -= Modifier.FINAL
-            val innerPath = innerName.split('$', limit = 2)[1]
-            mkOpenMirrorClass(
-                pool.classForName(innerName.replace('/', '.')), baseClass,
-                "$newBase\$$innerPath", classRenames, alreadyDone, pool
-            )
-        }
-    }
-
-    /**
-     * Transforms a signature to refer to the new names.
-     * @param signature a signature from a NameAndType constant or a compound type name (so L names are involved)
-     * @return the signature with class mentions remapped according to classRenames
-     */
-    fun fixSignature(signature: String): String {
-        var editedSignature = signature
-        classRenames.forEach { (orig, new) ->
-            editedSignature = editedSignature.replace("L$orig;", "L$new;").replace("L$orig$", "L$new$")
-        }
-        return editedSignature
-    }
-
-    // Rename the class by changing all strings used by class or signature constants
-    (1 until constantPool.length).forEach { idx ->
-        val constant = constantPool.getConstant(idx)
-        if (constant is ConstantClass) {
-            val className = constant.getBytes(constantPool)
-            val classNameParts = className.split('$', limit = 2)
-            val newConstantValue = if (classNameParts[0] in classRenames.keys) {
-                // Reference to a plain class (not L-named)
-                val newSlashBase = classRenames[classNameParts[0]]
-                if (classNameParts.size > 1) "$newSlashBase\$${classNameParts[1]}" else newSlashBase
-            } else if (className.contains(';')) {
-                // Compound class name (like an array or generic type, includes an L name)
-                fixSignature(className)
-            } else {
-                // Primitive array type or something similarly irrelevant
-                className
-            }
-            constantPoolGen.setConstant(constant.nameIndex, ConstantUtf8(newConstantValue))
-        } else if (constant is ConstantNameAndType) {
-            // An actual signature, which will always L-name classes
-            val signature = constant.getSignature(constantPool)
-            constantPoolGen.setConstant(constant.signatureIndex, ConstantUtf8(fixSignature(signature)))
-        }
+    pool: TypePool,
+    cacheEntry: MirrorCache.Entry,
+    input: ByteArray = pool.getBytecodeForClass(clazz)
+): ByteArray {
+    // Rename classes and strip `final` off the class, its methods, and its inner classes
+    // See NOTE: [Streaming open mirrors]
+    val rewritten = cacheEntry.getOrPut(newName, input) {
+        rewriteOpenClass(input, baseClass.slashName(), classRenames)
     }
 
-    // Rewrite signatures of all methods and fields
-    classGen.methods.map { it.signatureIndex }.union(classGen.fields.map { it.signatureIndex }).forEach { sigIdx ->
-        val signature = (constantPool.getConstant(sigIdx) as ConstantUtf8).bytes
-        constantPoolGen.setConstant(sigIdx, ConstantUtf8(fixSignature(signature)))
+    // Mirror inner classes when they are needed
+    pool.deferInnerMirrors(newName, rewritten.innerClasses) { inner, innerMirrorName ->
+        mkOpenMirrorBytes(inner, baseClass, innerMirrorName, classRenames, pool, cacheEntry)
     }
 
-    // Create and load the modified class
-    // classGen.javaClass.dump("Opened${alreadyDone.indexOf(newName)}.class") // Uncomment for debugging
-    return pool.loadMirrorBytes(newName, classGen.javaClass, clazz)
+    return rewritten.bytes
 }
 
 @Suppress("MagicNumber")
@@ -0,0 +1,188 @@
+package edu.illinois.cs.cs125.answerable.classmanipulation
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.security.MessageDigest
+import java.util.Base64
+import java.util.Properties
+
+/* NOTE: [Deterministic mirror names]
+ * A mirror's name is derived from its cache key, i.e. the digest of the input bytecode, the mirroring role
+ * (the name prefix, e.g. `openref_`), and the renames performed. So mirroring the same class the same way always
+ * produces the same name, in any process, and the mirrors can be archived (see [MirrorCache.writeArchive]) and reused
+ * by a later process. Names only need to be unique within one loader: if a pool already has the mirror,
+ * the next mirroring operation into it gets a numbered variant of the name instead.
+ */
+
+/**
+ * Remembers the output of recent mirroring operations, so that mirroring the same bytecode the same way again
+ * (e.g. when re-grading a submission or testing it with several seeds) only has to define the finished classes.
+ *
+ * Entries are identified by their deterministic mirror name. See NOTE: [Deterministic mirror names]
+ * Mirroring also reads the bytecode of inner classes (possibly much later, see [TypePool.deferMirror]),
+ * so each mirror class in an entry records the digest of its input, and is only reused if that still matches.
+ */
+internal object MirrorCache {
+
+    private const val MAX_ENTRIES = 256
+    private const val MIRROR_HASH_LENGTH = 32
+    private const val ARCHIVE_MAGIC = 0x414D4952 // "AMIR"
+    private const val ARCHIVE_FORMAT = 1
+
+    /**
+     * The Answerable version that wrote an archive, since mirrors made by other versions may differ.
+     */
+    internal val archiveVersion: String by lazy {
+        val properties = Properties()
+        MirrorCache::class.java.getResourceAsStream("/edu.illinois.cs.cs125.answerable.core.version")
+            ?.use { properties.load(it) }
+        properties.getProperty("version", "unknown")
+    }
+
+    /**
+     * Identifies one mirroring operation.
+     * @param kind which mirroring function produced the entry
+     * @param namePrefix the prefix of the mirror name, which indicates the role of the mirror
+     * @param digest the digest of the outermost input class's bytecode
+     * @param renames any other class name replacements that were made, as dot names
+     */
+    data class Key(val kind: String, val namePrefix: String, val digest: String, val renames: Map<String, String>) {
+        /**
+         * The name of the first mirror made by this operation in a type pool.
+         */
+        val mirrorName: String by lazy {
+            val description = listOf(kind, namePrefix, digest)
+                .plus(renames.toSortedMap().map { (from, to) -> "$from>$to" })
+                .joinToString("\n")
+            val hash = MessageDigest.getInstance("SHA-256").digest(description.toByteArray())
+                .joinToString("") { String.format("%02x", it) }
+            "answerablemirror.$namePrefix" + hash.take(MIRROR_HASH_LENGTH)
+        }
+    }
+
+    /**
+     * One class made by a mirroring operation.
+     * @param inputDigest the digest of the bytecode of the input class it was mirrored from
+     * @param output the mirror
+     */
+    class MirroredClass(val inputDigest: String, val output: RewrittenClass)
+
+    /**
+     * The classes made by one mirroring operation.
+     * @param key the mirroring operation
+     * @param mirrorName the dot name of the outermost mirror class
+     */
+    class Entry(val key: Key, val mirrorName: String) {
+        private val classes = mutableMapOf<String, MirroredClass>()
+
+        /**
+         * Gets one mirror class made from the same [input] before, or makes it and remembers it.
+         * @param name the dot name of the mirror class
+         * @param input the bytecode of the input class
+         * @param inputDigest the digest of [input]
+         * @param mkMirror makes the mirror class from scratch
+         */
+        fun getOrPut(
+            name: String,
+            input: ByteArray,
+            inputDigest: String = input.digest(),
+            mkMirror: () -> RewrittenClass
+        ): RewrittenClass {
+            synchronized(classes) { classes[name] }?.takeIf { it.inputDigest == inputDigest }?.let { return it.output }
+            return mkMirror().also { synchronized(classes) { classes[name] = MirroredClass(inputDigest, it) } }
+        }
+
+        internal fun snapshot(): Map<String, MirroredClass> = synchronized(classes) { classes.toMap() }
+
+        internal fun put(name: String, mirrored: MirroredClass) {
+            synchronized(classes) { classes[name] = mirrored }
+        }
+    }
+
+    @Suppress("MagicNumber")
+    private val entries = object : LinkedHashMap<String, MirrorCache.Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, MirrorCache.Entry>?): Boolean =
+            size > MAX_ENTRIES
+    }
+
+    /**
+     * Gets the entry to use for a mirroring operation into a [pool].
+     *
+     * Each mirroring operation is expected to produce a fresh class (with its own static state), so if the pool
+     * already has the mirror (or another thread is making it), a numbered variant of its name is used instead.
+     */
+    fun entryFor(key: Key, pool: TypePool): Entry {
+        val name = generateSequence(1) { it + 1 }
+            .map { if (it == 1) key.mirrorName else "${key.mirrorName}_$it" }
+            .first { pool.claimMirrorName(it) }
+        return synchronized(entries) { entries.getOrPut(name) { Entry(key, name) } }
+    }
+
+    fun clear() {
+        synchronized(entries) { entries.clear() }
+    }
+
+    /**
+     * Writes the cached mirrors whose role is one of [namePrefixes] to an archive.
+     * @return the number of mirroring operations written
+     */
+    fun writeArchive(output: DataOutputStream, namePrefixes: Set<String>): Int {
+        val toWrite = synchronized(entries) { entries.values.toList() }.filter { it.key.namePrefix in namePrefixes }
+        output.writeInt(ARCHIVE_MAGIC)
+        output.writeInt(ARCHIVE_FORMAT)
+        output.writeUTF(archiveVersion)
+        output.writeInt(toWrite.size)
+        toWrite.forEach { entry ->
+            output.writeUTF(entry.key.kind)
+            output.writeUTF(entry.key.namePrefix)
+            output.writeUTF(entry.key.digest)
+            output.writeInt(entry.key.renames.size)
+            entry.key.renames.forEach { (from, to) ->
+                output.writeUTF(from)
+                output.writeUTF(to)
+            }
+            output.writeUTF(entry.mirrorName)
+            val classes = entry.snapshot()
+            output.writeInt(classes.size)
+            classes.forEach { (name, mirrored) ->
+                output.writeUTF(name)
+                output.writeUTF(mirrored.inputDigest)
+                output.writeInt(mirrored.output.innerClasses.size)
+                mirrored.output.innerClasses.forEach(output::writeUTF)
+                output.writeInt(mirrored.output.bytes.size)
+                output.write(mirrored.output.bytes)
+            }
+        }
+        return toWrite.size
+    }
+
+    /**
+     * Adds the mirrors in an archive written by [writeArchive] to the cache.
+     * Archives written by a different version of Answerable are ignored.
+     * @return the number of mirroring operations read
+     */
+    fun readArchive(input: DataInputStream): Int {
+        if (input.readInt() != ARCHIVE_MAGIC) throw IllegalArgumentException("Not a mirror archive")
+        if (input.readInt() != ARCHIVE_FORMAT || input.readUTF() != archiveVersion) return 0
+        val count = input.readInt()
+        repeat(count) {
+            val kind = input.readUTF()
+            val namePrefix = input.readUTF()
+            val digest = input.readUTF()
+            val renames = (0 until input.readInt()).associate { input.readUTF() to input.readUTF() }
+            val entry = Entry(Key(kind, namePrefix, digest, renames), input.readUTF())
+            repeat(input.readInt()) {
+                val name = input.readUTF()
+                val inputDigest = input.readUTF()
+                val innerClasses = (0 until input.readInt()).map { input.readUTF() }
+                val bytes = ByteArray(input.readInt()).also { input.readFully(it) }
+                entry.put(name, MirroredClass(inputDigest, RewrittenClass(bytes, innerClasses)))
+            }
+            synchronized(entries) { entries[entry.mirrorName] = entry }
+        }
+        return count
+    }
+}
+
+internal fun ByteArray.digest(): String =
+    Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(this))
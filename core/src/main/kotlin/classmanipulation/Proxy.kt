@@ -1,8 +1,13 @@
 package edu.illinois.cs.cs125.answerable.classmanipulation
 
 import edu.illinois.cs.cs125.answerable.publicFields
+import edu.illinois.cs.cs125.answerable.testing.MethodInvoker
+import javassist.util.proxy.MethodHandler
 import javassist.util.proxy.Proxy
+import java.lang.reflect.Field
+import java.lang.reflect.Method
 import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Creates a proxy to allow treating an object as an instance of a similarly-shaped class.
@@ -32,15 +37,6 @@ private data class TypeMapping(
     val presentation: Class<*>
 )
 
-/**
- * The value for a proxied method call and the argument type from the method signature.
- * The concrete type of the argument may not be the same as the argument type.
- */
-private data class TypedArgument(
-    val type: Class<*>,
-    val argument: Any?
-)
-
 /**
  * Determines what a class should be proxied to, if any.
  * @param outermostPresentationClass the outer class a proxy is being made an instance of
@@ -151,6 +147,121 @@ private fun mostDerivedProxyableClass(
     )
 }
 
+/* NOTE: [Proxy adapters]
+ * Proxies are instances of a javassist subclass of the presentation class, whose handler forwards every call to the
+ * real (behavior) object. Working out how to forward a call only depends on the classes involved, so it is done once
+ * per pair of classes by a [ProxyAdapter] kept in the type pool, instead of with name-based reflective lookups on
+ * every call. For each called method, the adapter remembers an invoker bound to a method handle of the behavior
+ * method, and which arguments and return value could need proxying at all: a primitive, an array, or an instance
+ * of a final class that isn't one of the proxied classes is passed along as it is, without looking at its class.
+ *
+ * Adapters hold on to the behavior class and handles of its methods, so they must be kept in a pool that is dropped
+ * along with the behavior class: for submissions, the per-submission pool that can see both sides, never the pool of
+ * the reference, which lives as long as the question and would keep every graded submission loaded.
+ */
+
+/**
+ * Knows how to forward calls and sync fields between proxies of one presentation class and instances of one
+ * behavior class. See NOTE: [Proxy adapters]
+ */
+internal class ProxyAdapter(
+    private val presentationClass: Class<*>,
+    private val outermostPresentationClass: Class<*>,
+    private val behaviorClass: Class<*>,
+    private val outermostBehaviorClass: Class<*>,
+    private val pool: TypePool
+) {
+    /**
+     * The identity of an adapter, for caching.
+     */
+    data class Key(
+        val presentationClass: Class<*>,
+        val outermostPresentationClass: Class<*>,
+        val behaviorClass: Class<*>,
+        val outermostBehaviorClass: Class<*>
+    )
+
+    private class SyncedField(val behavior: Field, val presentation: Field)
+
+    private val fields by lazy {
+        behaviorClass.publicFields.map { SyncedField(it, presentationClass.getField(it.name)) }
+    }
+
+    /**
+     * How to forward calls of one method of the presentation class.
+     * @param invoker calls the corresponding method of the behavior class
+     * @param proxiedArguments the indices of the arguments that could need proxying
+     * @param proxiedResult whether the return value could need proxying
+     */
+    private class ForwardedMethod(
+        val invoker: MethodInvoker,
+        val proxiedArguments: IntArray,
+        val proxiedResult: Boolean
+    )
+
+    /**
+     * Maps methods of the presentation class to how calls of them are forwarded.
+     */
+    private val methods = ConcurrentHashMap<Method, ForwardedMethod>()
+
+    private fun forwardedMethod(method: Method): ForwardedMethod {
+        return methods.computeIfAbsent(method) {
+            // proxy arguments the opposite direction for compatibility with the real object
+            val argumentTypes = method.parameterTypes.map { parameterType ->
+                proxyableClass(outermostBehaviorClass, outermostPresentationClass, parameterType, pool)
+                    ?.presentation ?: parameterType
+            }
+            val behaviorMethod = behaviorClass.getMethod(method.name, *argumentTypes.toTypedArray())
+            ForwardedMethod(
+                invoker = MethodInvoker(behaviorMethod),
+                proxiedArguments = method.parameterTypes.indices
+                    .filter { mayHoldProxyable(method.parameterTypes[it], outermostPresentationClass) }
+                    .toIntArray(),
+                proxiedResult = mayHoldProxyable(behaviorMethod.returnType, outermostBehaviorClass)
+            )
+        }
+    }
+
+    /**
+     * Copies the public fields of a proxy to the object it forwards to.
+     */
+    fun syncOut(proxy: Any, behaviorInstance: Any) {
+        fields.forEach { it.behavior.set(behaviorInstance, it.presentation.get(proxy)) }
+    }
+
+    /**
+     * Copies the public fields of a real object to a proxy of it.
+     */
+    fun syncIn(proxy: Any, behaviorInstance: Any) {
+        fields.forEach { it.presentation.set(proxy, it.behavior.get(behaviorInstance)) }
+    }
+
+    /**
+     * Handles a call to a method of a proxy.
+     */
+    fun forward(proxy: Any, behaviorInstance: Any, method: Method, args: Array<Any?>): Any? {
+        val forwarded = forwardedMethod(method)
+        syncOut(proxy, behaviorInstance)
+        forwarded.proxiedArguments.forEach { i ->
+            args[i] = mkValueProxy(args[i], outermostBehaviorClass, outermostPresentationClass, pool)
+        }
+        // actual proxied method call
+        val result = forwarded.invoker(behaviorInstance, args)
+        syncIn(proxy, behaviorInstance)
+        // return result proxied if necessary
+        if (!forwarded.proxiedResult) return result
+        return mkValueProxy(result, outermostPresentationClass, outermostBehaviorClass, pool)
+    }
+}
+
+/**
+ * Whether a value whose static type is [type] could be an instance of [outermostClass], one of its inner classes,
+ * or a proxy, and so might need to be proxied.
+ */
+private fun mayHoldProxyable(type: Class<*>, outermostClass: Class<*>): Boolean =
+    !type.isPrimitive && !type.isArray &&
+        (!Modifier.isFinal(type.modifiers) || type == outermostClass || type.name.startsWith("${outermostClass.name}$"))
+
 /**
  * Returns an instance of presentationClass that behaves equivalently to behavior instance: method calls
  * on the returned instance are forwarded to the behaviorInstance, and modifications to fields of the returned proxy
@@ -182,46 +293,28 @@ private fun mkProxy(
         presentationClass.isAssignableFrom(existingProxy.javaClass)
     }?.let { return it }
 
+    val adapter = pool.getProxyAdapter(
+        ProxyAdapter.Key(presentationClass, outermostPresentationClass, behaviorClass, outermostBehaviorClass)
+    )
     val subProxy = pool.getProxyInstantiator(presentationClass).newInstance()
-    (subProxy as Proxy).setHandler { self, method, _, args ->
-        // sync out
-        behaviorClass.publicFields.forEach { it.set(behaviorInstance, self.javaClass.getField(it.name).get(self)) }
-        // proxy arguments the opposite direction for compatibility with the real object
-        val arguments = method.parameterTypes.indices.map { i ->
-            val argumentProxying = proxyableClass(
-                outermostBehaviorClass, outermostPresentationClass,
-                method.parameterTypes[i], pool
-            )
-            val proxiedArgumentType = argumentProxying?.presentation ?: method.parameterTypes[i]
-            val argumentValue = mkValueProxy(
-                args[i],
-                outermostBehaviorClass,
-                outermostPresentationClass,
-                pool
-            )
-            TypedArgument(
-                proxiedArgumentType,
-                argumentValue
-            )
-        }
-        // actual proxied method call
-        val result = behaviorClass.getMethod(method.name, *arguments.map { it.type }.toTypedArray())
-            .invoke(behaviorInstance, *arguments.map { it.argument }.toTypedArray())
-        // sync in
-        behaviorClass.publicFields.forEach { self.javaClass.getField(it.name).set(self, it.get(behaviorInstance)) }
-        // return result proxied if necessary
-        mkValueProxy(
-            result,
-            outermostPresentationClass,
-            outermostBehaviorClass,
-            pool
-        )
-    }
-
-    pool.recordProxyOriginal(behaviorInstance, subProxy)
+    val originalKey = pool.recordProxyOriginal(behaviorInstance, subProxy)
+    (subProxy as Proxy).setHandler(ForwardingHandler(adapter, behaviorInstance, originalKey))
     return subProxy
 }
 
+/**
+ * Forwards the calls of one proxy to the object it stands for.
+ * @param originalKey the key of the proxy's entry in its pool's proxy originals, which lasts as long as the proxy
+ */
+private class ForwardingHandler(
+    private val adapter: ProxyAdapter,
+    private val behaviorInstance: Any,
+    @Suppress("unused") private val originalKey: Any
+) : MethodHandler {
+    override fun invoke(self: Any, method: Method, proceed: Method?, args: Array<Any?>): Any? =
+        adapter.forward(self, behaviorInstance, method, args)
+}
+
 /**
  * Proxies (if necessary) one value of an unknown type.
  * @param value the value to potentially proxy, may be null
@@ -248,7 +341,10 @@ internal fun mkValueProxy(
         mapping.presentation, outermostPresentationClass,
         mapping.behavior, outermostBehaviorClass, value, pool
     )
-    mapping.behavior.publicFields
-        .forEach { innerProxy.javaClass.getField(it.name).set(innerProxy, it.get(value)) }
+    if (innerProxy !== value) {
+        pool.getProxyAdapter(
+            ProxyAdapter.Key(mapping.presentation, outermostPresentationClass, mapping.behavior, outermostBehaviorClass)
+        ).syncIn(innerProxy, value)
+    }
     return innerProxy
 }
@@ -5,15 +5,21 @@ package edu.illinois.cs.cs125.answerable.classmanipulation
 import edu.illinois.cs.cs125.answerable.api.BytecodeProvider
 import edu.illinois.cs.cs125.answerable.api.EnumerableBytecodeLoader
 import javassist.util.proxy.ProxyFactory
-import org.apache.bcel.Repository
 import org.apache.bcel.classfile.ClassParser
 import org.apache.bcel.classfile.JavaClass
 import org.objenesis.ObjenesisStd
 import org.objenesis.instantiator.ObjectInstantiator
+import java.lang.ref.WeakReference
 import java.lang.reflect.Type
+import java.util.Collections
 import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 
-private val objenesis = ObjenesisStd()
+// Objenesis's own cache is keyed by class name and would keep every proxy class alive, so type pools cache instead
+private val objenesis = ObjenesisStd(false)
+
+private const val MAX_CACHED_BCEL_CLASSES = 64
 
 /**
  * Manages a collection of types: their object instantiators, their bytecode, and the classes themselves.
@@ -21,6 +27,8 @@ private val objenesis = ObjenesisStd()
  * another for a submission.
  *
  * Like classloaders, type pools can have a parent which they will ask for types they don't themselves have.
+ *
+ * Type pools (and their loaders) are safe to use from several threads at once.
  */
 internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null, val parent: TypePool? = null) {
 
@@ -32,7 +40,7 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
      * We map from 'superClass' instead of directly from 'proxyClass' as we won't have access to
      * the same reference to 'proxyClass' on future calls.
      */
-    private val proxyInstantiators: MutableMap<Class<*>, ObjectInstantiator<*>> = mutableMapOf()
+    private val proxyInstantiators: MutableMap<Class<*>, ObjectInstantiator<*>> = ConcurrentHashMap()
 
     class ProxyHolder(val proxy: Any) {
         // Prevent calls to proxied equals and hashCode
@@ -44,17 +52,30 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
         override fun hashCode(): Int = System.identityHashCode(proxy)
     }
 
-    private val proxyOriginals: WeakHashMap<ProxyHolder, Any> = WeakHashMap()
+    private val proxyOriginals: MutableMap<ProxyHolder, Any> = Collections.synchronizedMap(WeakHashMap())
 
+    @Volatile
     private var loader: BytesClassLoader =
         BytesClassLoader()
-    private val bytecode = mutableMapOf<Class<*>, ByteArray>()
+    private val bytecode: MutableMap<Class<*>, ByteArray> = ConcurrentHashMap()
 
     /**
      * Tracks the original class from which each class was mirrored.
      * Used to get nicer error messages from TestGeneration.
      */
-    private val mirrorOriginalTypes = mutableMapOf<Class<*>, Type>()
+    private val mirrorOriginalTypes: MutableMap<Class<*>, Type> = ConcurrentHashMap()
+    private val mirrorOriginalTypesByName: MutableMap<String, Type> = ConcurrentHashMap()
+
+    /**
+     * Names handed out for new mirrors, which may not be defined yet.
+     */
+    private val claimedMirrorNames: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Type pools whose original class mappings apply to classes from a loader that transformed their classes.
+     * Consulted lazily, since mirrors may be defined (see [deferMirror]) after the mappings are taken.
+     */
+    private val borrowedOriginalTypes: MutableList<Pair<TypePool, ClassLoader>> = CopyOnWriteArrayList()
 
     constructor(bytecodeProvider: BytecodeProvider?, commonLoader: ClassLoader) : this(bytecodeProvider) {
         loader = BytesClassLoader(commonLoader)
@@ -67,26 +88,98 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
         )
     }
 
+    /**
+     * Recently parsed classes. Callers only read them, so they can be shared.
+     */
+    @Suppress("MagicNumber")
+    private val bcelClasses = object : LinkedHashMap<Class<*>, JavaClass>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Class<*>, JavaClass>?): Boolean =
+            size > MAX_CACHED_BCEL_CLASSES
+    }
+
     fun getBcelClassForClass(clazz: Class<*>): JavaClass {
-        @Suppress("TooGenericExceptionCaught")
+        synchronized(bcelClasses) { bcelClasses[clazz] }?.let { return it }
+        return ClassParser(getBytecodeForClass(clazz).inputStream(), clazz.name).parse()
+            .also { synchronized(bcelClasses) { bcelClasses[clazz] = it } }
+    }
+
+    /**
+     * Finds the bytecode of a class: the bytes of a mirror defined in this pool or an ancestor,
+     * then the bytecode providers of this pool's ancestors and itself, then the class file the class was loaded from.
+     */
+    fun getBytecodeForClass(clazz: Class<*>): ByteArray {
+        return findMirrorBytecode(clazz)
+            ?: findProvidedBytecode(clazz)
+            ?: findClassFile(clazz)
+            ?: throw NoClassDefFoundError("Could not find bytecode for $clazz")
+    }
+
+    private fun findMirrorBytecode(clazz: Class<*>): ByteArray? {
+        return parent?.findMirrorBytecode(clazz) ?: bytecode[clazz]
+    }
+
+    private fun findProvidedBytecode(clazz: Class<*>): ByteArray? {
+        parent?.findProvidedBytecode(clazz)?.let { return it }
         return try {
-            parent?.getBcelClassForClass(clazz)!!
-        } catch (e: Exception) {
-            (
-                bytecode[clazz] ?: bytecodeProvider?.getBytecode(clazz) ?: Repository.lookupClass(clazz)
-                    .also { Repository.clearCache() }.bytes
-                )?.let {
-                ClassParser(it.inputStream(), clazz.name).parse()
-            } ?: throw NoClassDefFoundError("Could not find bytecode for $clazz")
+            bytecodeProvider?.getBytecode(clazz)
+        } catch (e: ClassNotFoundException) {
+            // This provider isn't responsible for the class
+            null
         }
     }
 
+    private fun findClassFile(clazz: Class<*>): ByteArray? {
+        val path = clazz.name.replace('.', '/') + ".class"
+        val stream = clazz.classLoader?.getResourceAsStream(path) ?: ClassLoader.getSystemResourceAsStream(path)
+        return stream?.use { it.readBytes() }
+    }
+
     fun loadMirrorBytes(name: String, bcelClass: JavaClass, mirroredFrom: Type): Class<*> {
-        val bytes = bcelClass.bytes
-        return loader.loadBytes(name, bytes).also {
-            bytecode[it] = bytes
-            mirrorOriginalTypes[it] = getOriginalClass(mirroredFrom)
-        }
+        return loadMirrorBytes(name, bcelClass.bytes, mirroredFrom)
+    }
+
+    fun loadMirrorBytes(name: String, bytes: ByteArray, mirroredFrom: Type): Class<*> {
+        return loader.loadBytes(name, bytes).also { recordMirror(it, bytes, mirroredFrom) }
+    }
+
+    /**
+     * Arranges for a mirror class to be defined when it is first loaded, instead of right away.
+     * Does nothing if a class of that name is already defined or deferred.
+     * @param name the dot name of the mirror class
+     * @param produce makes the bytecode of the mirror class, and returns it along with the class it was mirrored from
+     */
+    fun deferMirror(name: String, produce: () -> Pair<ByteArray, Type>) {
+        var mirroredFrom: Type? = null
+        loader.deferBytes(
+            name,
+            produce = { produce().let { (bytes, from) -> mirroredFrom = from; bytes } },
+            defined = { clazz, bytes -> recordMirror(clazz, bytes, mirroredFrom!!) }
+        )
+    }
+
+    private fun recordMirror(clazz: Class<*>, bytes: ByteArray, mirroredFrom: Type) {
+        val original = getOriginalClass(mirroredFrom)
+        bytecode[clazz] = bytes
+        mirrorOriginalTypes[clazz] = original
+        mirrorOriginalTypesByName[clazz.name] = original
+    }
+
+    fun definesClass(name: String): Boolean {
+        return loader.hasDefined(name)
+    }
+
+    /**
+     * Reserves a name for a new mirror class, so that concurrent mirroring operations don't pick the same one.
+     * A name is only free if no ancestor pool has claimed it and no loader up the chain has a class by that name,
+     * since loaders delegate to their parents first and the classes that refer to a mirror by name would get theirs.
+     * @return whether the name was free
+     */
+    fun claimMirrorName(name: String): Boolean {
+        return !isNameTaken(name) && claimedMirrorNames.add(name)
+    }
+
+    private fun isNameTaken(name: String): Boolean {
+        return name in claimedMirrorNames || parent?.isNameTaken(name) == true || loader.canLoad(name)
     }
 
     fun classForName(name: String): Class<*> {
@@ -95,17 +188,33 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
     }
 
     fun getProxyInstantiator(superClass: Class<*>): ObjectInstantiator<*> {
-        return proxyInstantiators.getOrPut(superClass) {
+        return proxyInstantiators.computeIfAbsent(superClass) {
+            // ProxyFactory.useCache already shares proxy classes between type pools: javassist keys them by loader,
+            // superclass, and the methods the filter handles (not the filter instance) and holds them weakly
             val factory = ProxyFactory()
             factory.superclass = superClass
             factory.setFilter { it.name != "finalize" }
-            val proxyClass = factory.createClass()
-            objenesis.getInstantiatorOf(proxyClass)
+            objenesis.getInstantiatorOf(factory.createClass())
         }
     }
 
-    fun recordProxyOriginal(behavior: Any, presentation: Any) {
-        proxyOriginals[ProxyHolder(presentation)] = behavior
+    private val proxyAdapters: MutableMap<ProxyAdapter.Key, ProxyAdapter> = ConcurrentHashMap()
+
+    fun getProxyAdapter(key: ProxyAdapter.Key): ProxyAdapter {
+        return proxyAdapters.computeIfAbsent(key) {
+            ProxyAdapter(
+                key.presentationClass, key.outermostPresentationClass,
+                key.behaviorClass, key.outermostBehaviorClass, this
+            )
+        }
+    }
+
+    /**
+     * Remembers the object that a proxy forwards to.
+     * @return the key of the entry, which is only kept while it is reachable, so the proxy must refer to it
+     */
+    fun recordProxyOriginal(behavior: Any, presentation: Any): Any {
+        return ProxyHolder(presentation).also { proxyOriginals[it] = behavior }
     }
 
     fun getProxyOriginal(presentation: Any): Any? {
@@ -116,15 +225,49 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
         return loader
     }
 
+    @Volatile
+    var isClosed: Boolean = false
+        private set
+
+    /**
+     * The number of mirror classes defined in this pool.
+     */
+    val mirrorClassCount: Int
+        get() = loader.definedClassCount
+
+    /**
+     * Drops this pool's references to its classes and loader, so that they can be unloaded once nothing else
+     * refers to them. The pool must not be used afterwards.
+     */
+    fun close() {
+        isClosed = true
+        loader.close()
+        loader = BytesClassLoader()
+        proxyInstantiators.clear()
+        proxyOriginals.clear()
+        proxyAdapters.clear()
+        bytecode.clear()
+        synchronized(bcelClasses) { bcelClasses.clear() }
+        mirrorOriginalTypes.clear()
+        mirrorOriginalTypesByName.clear()
+        borrowedOriginalTypes.clear()
+        claimedMirrorNames.clear()
+    }
+
     fun getOriginalClass(type: Type): Type {
         if (type !is Class<*>) return type
-        return mirrorOriginalTypes[type] ?: parent?.getOriginalClass(type) ?: type
+        return mirrorOriginalTypes[type]
+            ?: borrowedOriginalTypes.asSequence()
+                .mapNotNull { (otherPool, transformedLoader) ->
+                    if (type.classLoader === transformedLoader) otherPool.mirrorOriginalTypesByName[type.name] else null
+                }
+                .firstOrNull()
+            ?: parent?.getOriginalClass(type)
+            ?: type
     }
 
     fun takeOriginalClassMappings(otherPool: TypePool, transformedLoader: ClassLoader) {
-        otherPool.mirrorOriginalTypes.forEach { (transformed, original) ->
-            mirrorOriginalTypes[transformedLoader.loadClass(transformed.name)] = original
-        }
+        borrowedOriginalTypes.add(Pair(otherPool, transformedLoader))
     }
 }
 
@@ -135,11 +278,77 @@ internal class TypePool(private val bytecodeProvider: BytecodeProvider? = null,
 internal open class BytesClassLoader(parentLoader: ClassLoader? = null) :
     ClassLoader(parentLoader ?: getSystemClassLoader()),
     EnumerableBytecodeLoader {
-    private val bytecodeLoaded = mutableMapOf<Class<*>, ByteArray>()
-    private val definedClasses = mutableMapOf<String, Class<*>>()
+    private val bytecodeLoaded: MutableMap<Class<*>, ByteArray> = ConcurrentHashMap()
+    private val definedClasses: MutableMap<String, Class<*>> = ConcurrentHashMap()
+    private val deferredClasses: MutableMap<String, DeferredClass> = ConcurrentHashMap()
+
+    private class DeferredClass(val produce: () -> ByteArray, val defined: (Class<*>, ByteArray) -> Unit)
+
+    companion object {
+        init {
+            registerAsParallelCapable()
+        }
+    }
+
+    /**
+     * Defines a class from bytes, unless a class of that name was already defined, in which case that is returned.
+     */
     fun loadBytes(name: String, bytes: ByteArray): Class<*> {
-        return definedClasses.getOrPut(name) {
-            defineClass(name, bytes, 0, bytes.size).also { bytecodeLoaded[it] = bytes }
+        definedClasses[name]?.let { return it }
+        synchronized(getClassLoadingLock(name)) {
+            return definedClasses.getOrPut(name) {
+                defineClass(name, bytes, 0, bytes.size).also { bytecodeLoaded[it] = bytes }
+            }
+        }
+    }
+
+    /**
+     * Arranges for a class to be defined from bytes that are only produced once the class is first loaded.
+     * Does nothing if a class of that name is already defined or deferred.
+     * @param name the dot name of the class
+     * @param produce makes the class file
+     * @param defined called after the class is defined
+     */
+    fun deferBytes(name: String, produce: () -> ByteArray, defined: (Class<*>, ByteArray) -> Unit = { _, _ -> }) {
+        synchronized(getClassLoadingLock(name)) {
+            if (name !in definedClasses) deferredClasses.putIfAbsent(name, DeferredClass(produce, defined))
+        }
+    }
+
+    fun hasDefined(name: String): Boolean {
+        return name in definedClasses
+    }
+
+    /**
+     * Whether a class of that name is defined or deferred here, or can be loaded by one of this loader's ancestors.
+     * Deferred classes are not defined to find out.
+     */
+    open fun canLoad(name: String): Boolean {
+        return name in definedClasses || name in deferredClasses || parent.canLoadClass(name)
+    }
+
+    val definedClassCount: Int
+        get() = definedClasses.size
+
+    /**
+     * Forgets all classes defined or deferred by this loader.
+     */
+    fun close() {
+        deferredClasses.clear()
+        definedClasses.clear()
+        bytecodeLoaded.clear()
+    }
+
+    override fun loadClass(name: String, resolve: Boolean): Class<*> {
+        if (name !in deferredClasses) return super.loadClass(name, resolve)
+        synchronized(getClassLoadingLock(name)) {
+            val deferred = deferredClasses[name] ?: return super.loadClass(name, resolve)
+            val bytes = deferred.produce()
+            return loadBytes(name, bytes).also {
+                deferredClasses.remove(name)
+                deferred.defined(it, bytes)
+                if (resolve) resolveClass(it)
+            }
         }
     }
 
@@ -149,6 +358,10 @@ internal open class BytesClassLoader(parentLoader: ClassLoader? = null) :
     }
 
     override fun getAllBytecode(): Map<String, ByteArray> {
+        // Classes that will be loaded later still need to be reported, so define them all now
+        while (deferredClasses.isNotEmpty()) {
+            deferredClasses.keys.forEach { loadClass(it) }
+        }
         return bytecodeLoaded.map { (key, value) -> key.name to value }.toMap()
     }
 
@@ -164,6 +377,12 @@ internal class DiamondClassLoader(
     primaryParent: ClassLoader,
     private vararg val otherParents: ClassLoader
 ) : BytesClassLoader(primaryParent) {
+    companion object {
+        init {
+            registerAsParallelCapable()
+        }
+    }
+
     override fun loadClass(name: String?): Class<*> {
         try {
             return super.loadClass(name)
@@ -177,4 +396,48 @@ internal class DiamondClassLoader(
         }
         throw ClassNotFoundException(name)
     }
+
+    override fun canLoad(name: String): Boolean {
+        return super.canLoad(name) || otherParents.any { it.canLoadClass(name) }
+    }
+}
+
+private fun ClassLoader?.canLoadClass(name: String): Boolean {
+    if (this is BytesClassLoader) return canLoad(name)
+    return try {
+        Class.forName(name, false, this)
+        true
+    } catch (e: ClassNotFoundException) {
+        false
+    }
+}
+
+/**
+ * Keeps track of the type pools made on behalf of one owner (e.g. a test generator), without keeping them alive,
+ * so that they can be counted and closed together.
+ */
+internal class TypePoolTracker {
+    private val pools = mutableListOf<WeakReference<TypePool>>()
+
+    fun track(pool: TypePool): TypePool {
+        synchronized(pools) {
+            pools.removeAll { it.get() == null }
+            pools.add(WeakReference(pool))
+        }
+        return pool
+    }
+
+    /**
+     * The tracked pools that are still reachable and haven't been closed.
+     */
+    fun livePools(): List<TypePool> {
+        return synchronized(pools) {
+            pools.removeAll { it.get() == null }
+            pools.mapNotNull { it.get() }
+        }.filterNot { it.isClosed }
+    }
+
+    fun closeAll() {
+        livePools().forEach { it.close() }
+    }
 }
@@ -1,7 +1,6 @@
 package edu.illinois.cs.cs125.answerable.testing
 
 import edu.illinois.cs.cs125.answerable.AnswerableMisuseException
-import edu.illinois.cs.cs125.answerable.ArrayWrapper
 import edu.illinois.cs.cs125.answerable.LanguageMode
 import edu.illinois.cs.cs125.answerable.annotations.Pair
 import edu.illinois.cs.cs125.answerable.annotations.getAllGenerators
@@ -38,6 +37,9 @@ internal class GeneratorMapBuilder(
         }
     }
 
+    private val defaultCollectionGenerators: Map<Class<*>, (List<Gen<*>>) -> Gen<*>> =
+        languageMode.defaultCollectionGenerators
+
     private val requiredGenerators: Set<GeneratorType> = goalTypes.toSet().also { it.forEach(this::request) }
 
     private fun lazyGenError(type: Type) =
@@ -74,13 +76,16 @@ internal class GeneratorMapBuilder(
                 request(type.componentType)
                 knownGenerators[type.asGeneratorType()] =
                     lazy {
-                        DefaultArrayGen(
+                        defaultArrayGen(
                             knownGenerators[type.componentType.asGeneratorType()]?.value
                                 ?: throw lazyArrayError(type.componentType),
                             type.componentType
                         )
                     }
             }
+            is ParameterizedType -> if (type.rawType in defaultCollectionGenerators) {
+                type.actualTypeArguments.forEach(this::request)
+            }
         }
     }
 
@@ -130,6 +135,9 @@ internal class GeneratorMapBuilder(
         knownGenerators.filter { (known, _) ->
             known.requested == goal.requested && generatorCompatible(goal.type, known.type)
         }.toList().firstOrNull()?.second?.also { return it.value }
+        if (goal.requested == null) {
+            (goal.type as? ParameterizedType)?.let(this::defaultCollectionGen)?.also { return it }
+        }
         // As a final check before giving up the generator search, look on the class itself
         return if (goal.type !is Class<*> || goal.requested != null) {
             null
@@ -137,13 +145,24 @@ internal class GeneratorMapBuilder(
             goal.klass.getAllGenerators().find {
                 it.returnType == goal.type
             }?.let { generatorMethod ->
-                CustomGen(generatorMethod).also { generator ->
+                customGen(generatorMethod).also { generator ->
                     accept(goal, generator)
                 }
             }
         }
     }
 
+    private fun defaultCollectionGen(type: ParameterizedType): Gen<*>? {
+        val factory = defaultCollectionGenerators[type.rawType] ?: return null
+        val argumentGens = type.actualTypeArguments.map { argument ->
+            // Type arguments are always boxed, e.g. List<Integer>, but the default generators are for the primitives
+            selectGenerator(GeneratorType(argument))
+                ?: (argument as? Class<*>)?.kotlin?.javaPrimitiveType?.let { selectGenerator(GeneratorType(it)) }
+                ?: throw lazyGenError(argument)
+        }
+        return factory(argumentGens).also { accept(GeneratorType(type), it) }
+    }
+
     fun build(): GeneratorMap = requiredGenerators
         .map { it to (GenWrapper(selectGenerator(it) ?: throw lazyGenError(it.type), random)) }
         .toMap().toMutableMap()
@@ -180,15 +199,7 @@ internal data class GeneratorMap(val map: Map<GeneratorType, GenWrapper<*>>) :
                 }
             }
         }
-        if (params.size > 1) {
-            when (params.size) {
-                2 -> this[GeneratorType(Pair::class.java)]
-                else -> null
-            }?.also {
-                println("Here")
-            }
-        }
-        return params.map { this[it]?.generate(comp) }.toTypedArray()
+        return kotlin.Array(params.size) { this[params[it]]?.generate(comp) }
     }
 }
 
@@ -206,9 +217,113 @@ internal interface Gen<out T> {
 
 @Suppress("NOTHING_TO_INLINE")
 internal inline operator fun <T> Gen<T>.invoke(complexity: Int, random: Random): T = generate(complexity, random)
-internal class CustomGen(private val gen: Method) :
+
+/* NOTE: [Primitive generators]
+ * Generators of primitives also implement one of the interfaces below, whose generateX function returns the
+ * primitive itself. Generators that are built out of other generators, like those for strings and arrays, check for
+ * these interfaces and use them to skip boxing each element. @Generator methods that return a primitive are bound
+ * the same way (see customGen), so a user's int generator is just as cheap to call as the default one.
+ *
+ * This only saves the boxes of values that are used to build other values, like the elements of strings and arrays,
+ * and of the generated value itself until it is stored. A primitive test argument is still boxed once, when it is put
+ * into its argument frame, and the solution is called with the box, since solutions are called with all of their
+ * arguments in one array. See NOTE: [Argument frames]
+ */
+
+internal interface BooleanGen : Gen<Boolean> {
+    fun generateBoolean(complexity: Int, random: Random): Boolean
+    override fun generate(complexity: Int, random: Random): Boolean = generateBoolean(complexity, random)
+}
+
+internal interface ByteGen : Gen<Byte> {
+    fun generateByte(complexity: Int, random: Random): Byte
+    override fun generate(complexity: Int, random: Random): Byte = generateByte(complexity, random)
+}
+
+internal interface ShortGen : Gen<Short> {
+    fun generateShort(complexity: Int, random: Random): Short
+    override fun generate(complexity: Int, random: Random): Short = generateShort(complexity, random)
+}
+
+internal interface IntGen : Gen<Int> {
+    fun generateInt(complexity: Int, random: Random): Int
+    override fun generate(complexity: Int, random: Random): Int = generateInt(complexity, random)
+}
+
+internal interface LongGen : Gen<Long> {
+    fun generateLong(complexity: Int, random: Random): Long
+    override fun generate(complexity: Int, random: Random): Long = generateLong(complexity, random)
+}
+
+internal interface FloatGen : Gen<Float> {
+    fun generateFloat(complexity: Int, random: Random): Float
+    override fun generate(complexity: Int, random: Random): Float = generateFloat(complexity, random)
+}
+
+internal interface DoubleGen : Gen<Double> {
+    fun generateDouble(complexity: Int, random: Random): Double
+    override fun generate(complexity: Int, random: Random): Double = generateDouble(complexity, random)
+}
+
+internal interface CharGen : Gen<Char> {
+    fun generateChar(complexity: Int, random: Random): Char
+    override fun generate(complexity: Int, random: Random): Char = generateChar(complexity, random)
+}
+
+/**
+ * Binds a @Generator method, as one of the primitive generators if it returns a primitive.
+ * See NOTE: [Primitive generators]
+ */
+@Suppress("ComplexMethod")
+internal fun customGen(gen: Method): Gen<*> = when (gen.returnType) {
+    Boolean::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : BooleanGen {
+            override fun generateBoolean(complexity: Int, random: Random) = invoker.invokeBoolean(complexity, random)
+        }
+    }
+    Byte::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : ByteGen {
+            override fun generateByte(complexity: Int, random: Random) = invoker.invokeByte(complexity, random)
+        }
+    }
+    Short::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : ShortGen {
+            override fun generateShort(complexity: Int, random: Random) = invoker.invokeShort(complexity, random)
+        }
+    }
+    Int::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : IntGen {
+            override fun generateInt(complexity: Int, random: Random) = invoker.invokeInt(complexity, random)
+        }
+    }
+    Long::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : LongGen {
+            override fun generateLong(complexity: Int, random: Random) = invoker.invokeLong(complexity, random)
+        }
+    }
+    Float::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : FloatGen {
+            override fun generateFloat(complexity: Int, random: Random) = invoker.invokeFloat(complexity, random)
+        }
+    }
+    Double::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : DoubleGen {
+            override fun generateDouble(complexity: Int, random: Random) = invoker.invokeDouble(complexity, random)
+        }
+    }
+    Char::class.javaPrimitiveType -> PrimitiveGeneratorInvoker(gen).let { invoker ->
+        object : CharGen {
+            override fun generateChar(complexity: Int, random: Random) = invoker.invokeChar(complexity, random)
+        }
+    }
+    else -> CustomGen(gen)
+}
+
+internal class CustomGen(gen: Method) :
     Gen<Any?> {
-    override fun generate(complexity: Int, random: Random): Any? = gen(null, complexity, random)
+    private val invoker = GeneratorInvoker(gen)
+
+    override fun generate(complexity: Int, random: Random): Any? = invoker(complexity, random)
 }
 
 internal class DefaultStringGen(private val cGen: Gen<*>) :
@@ -216,38 +331,191 @@ internal class DefaultStringGen(private val cGen: Gen<*>) :
     override fun generate(complexity: Int, random: Random): String {
         val len = random.nextInt(complexity + 1)
 
-        return String((1..len).map { cGen(complexity, random) as Char }.toTypedArray().toCharArray())
+        return if (cGen is CharGen) {
+            String(CharArray(len) { cGen.generateChar(complexity, random) })
+        } else {
+            String(CharArray(len) { cGen(complexity, random) as Char })
+        }
     }
 }
 
-// Note that we can't do `Gen<kotlin.Array<T>>` here as the parent type because `Array.newInstance`
-// is a Java function, and `Array.newInstance(int.class)` produces a primitive array (a Kotlin `IntArray`)
-// which cannot be cast to `Gen<kotlin.Array<Int>>`. Same goes for all primitive types.
-internal class DefaultArrayGen<T>(private val tGen: Gen<T>, private val tClass: Class<*>) :
-    Gen<Any> {
-    override fun generate(complexity: Int, random: Random): Any {
-        return Array.newInstance(tClass, random.nextInt(complexity + 1)).also {
-            val wrapper = ArrayWrapper(it)
-            (0 until wrapper.size).forEach { idx -> wrapper[idx] = tGen(random.nextInt(complexity + 1), random) }
+/* NOTE: [Array generators]
+ * Primitive arrays are generated by a generator for their own array type (IntArrayGen for int[], and so on), which
+ * writes the elements straight into the array as primitives. Arrays of objects, including nested arrays, are made
+ * once per array with Array.newInstance, so that they have the right runtime type, and then filled with ordinary
+ * array stores. Nothing calls java.lang.reflect.Array.set, and only elements that are objects anyway are boxed.
+ *
+ * A generator for a primitive component type that isn't one of the primitive generators (see
+ * NOTE: [Primitive generators]) still works; its elements are unboxed as they are stored.
+ */
+
+/**
+ * Makes the default generator for arrays with component type [tClass], whose elements come from [tGen].
+ * See NOTE: [Array generators]
+ */
+@Suppress("ComplexMethod", "LongMethod")
+internal fun defaultArrayGen(tGen: Gen<*>, tClass: Class<*>): Gen<Any> = when (tClass) {
+    Boolean::class.javaPrimitiveType -> BooleanArrayGen(
+        tGen as? BooleanGen ?: object : BooleanGen {
+            override fun generateBoolean(complexity: Int, random: Random) = tGen(complexity, random) as Boolean
+        }
+    )
+    Byte::class.javaPrimitiveType -> ByteArrayGen(
+        tGen as? ByteGen ?: object : ByteGen {
+            override fun generateByte(complexity: Int, random: Random) = tGen(complexity, random) as Byte
+        }
+    )
+    Short::class.javaPrimitiveType -> ShortArrayGen(
+        tGen as? ShortGen ?: object : ShortGen {
+            override fun generateShort(complexity: Int, random: Random) = tGen(complexity, random) as Short
+        }
+    )
+    Int::class.javaPrimitiveType -> IntArrayGen(
+        tGen as? IntGen ?: object : IntGen {
+            override fun generateInt(complexity: Int, random: Random) = tGen(complexity, random) as Int
+        }
+    )
+    Long::class.javaPrimitiveType -> LongArrayGen(
+        tGen as? LongGen ?: object : LongGen {
+            override fun generateLong(complexity: Int, random: Random) = tGen(complexity, random) as Long
+        }
+    )
+    Float::class.javaPrimitiveType -> FloatArrayGen(
+        tGen as? FloatGen ?: object : FloatGen {
+            override fun generateFloat(complexity: Int, random: Random) = tGen(complexity, random) as Float
+        }
+    )
+    Double::class.javaPrimitiveType -> DoubleArrayGen(
+        tGen as? DoubleGen ?: object : DoubleGen {
+            override fun generateDouble(complexity: Int, random: Random) = tGen(complexity, random) as Double
+        }
+    )
+    Char::class.javaPrimitiveType -> CharArrayGen(
+        tGen as? CharGen ?: object : CharGen {
+            override fun generateChar(complexity: Int, random: Random) = tGen(complexity, random) as Char
+        }
+    )
+    else -> ObjectArrayGen(tGen, tClass)
+}
+
+internal class BooleanArrayGen(private val tGen: BooleanGen) : Gen<BooleanArray> {
+    override fun generate(complexity: Int, random: Random): BooleanArray =
+        BooleanArray(random.nextInt(complexity + 1)) { tGen.generateBoolean(random.nextInt(complexity + 1), random) }
+}
+
+internal class ByteArrayGen(private val tGen: ByteGen) : Gen<ByteArray> {
+    override fun generate(complexity: Int, random: Random): ByteArray =
+        ByteArray(random.nextInt(complexity + 1)) { tGen.generateByte(random.nextInt(complexity + 1), random) }
+}
+
+internal class ShortArrayGen(private val tGen: ShortGen) : Gen<ShortArray> {
+    override fun generate(complexity: Int, random: Random): ShortArray =
+        ShortArray(random.nextInt(complexity + 1)) { tGen.generateShort(random.nextInt(complexity + 1), random) }
+}
+
+internal class IntArrayGen(private val tGen: IntGen) : Gen<IntArray> {
+    override fun generate(complexity: Int, random: Random): IntArray =
+        IntArray(random.nextInt(complexity + 1)) { tGen.generateInt(random.nextInt(complexity + 1), random) }
+}
+
+internal class LongArrayGen(private val tGen: LongGen) : Gen<LongArray> {
+    override fun generate(complexity: Int, random: Random): LongArray =
+        LongArray(random.nextInt(complexity + 1)) { tGen.generateLong(random.nextInt(complexity + 1), random) }
+}
+
+internal class FloatArrayGen(private val tGen: FloatGen) : Gen<FloatArray> {
+    override fun generate(complexity: Int, random: Random): FloatArray =
+        FloatArray(random.nextInt(complexity + 1)) { tGen.generateFloat(random.nextInt(complexity + 1), random) }
+}
+
+internal class DoubleArrayGen(private val tGen: DoubleGen) : Gen<DoubleArray> {
+    override fun generate(complexity: Int, random: Random): DoubleArray =
+        DoubleArray(random.nextInt(complexity + 1)) { tGen.generateDouble(random.nextInt(complexity + 1), random) }
+}
+
+internal class CharArrayGen(private val tGen: CharGen) : Gen<CharArray> {
+    override fun generate(complexity: Int, random: Random): CharArray =
+        CharArray(random.nextInt(complexity + 1)) { tGen.generateChar(random.nextInt(complexity + 1), random) }
+}
+
+// Array.newInstance, unlike kotlin.arrayOfNulls, gives the array the component type that the tested method expects
+// even when it's only known at runtime, e.g. `String[]` for the elements of a `String[][]`.
+internal class ObjectArrayGen(private val tGen: Gen<*>, private val tClass: Class<*>) : Gen<kotlin.Array<*>> {
+    init {
+        require(!tClass.isPrimitive) { "${tClass.name} is a primitive type" }
+    }
+
+    override fun generate(complexity: Int, random: Random): kotlin.Array<*> {
+        @Suppress("UNCHECKED_CAST")
+        val array = Array.newInstance(tClass, random.nextInt(complexity + 1)) as kotlin.Array<Any?>
+        for (idx in array.indices) {
+            array[idx] = tGen(random.nextInt(complexity + 1), random)
         }
+        return array
     }
 }
 
+/* NOTE: [Collection generators]
+ * Parameters of type List<T>, Set<T>, and Map<K, V> get a default generator unless a @Generator for a compatible type
+ * (see generatorCompatible) is available. The element generators are found the same way as any other generator, so
+ * a @Generator for Widget is used for a List<Widget>, and nested collections like List<Set<String>> work too.
+ * The defaults are listed in LanguageMode.defaultCollectionGenerators.
+ *
+ * Each collection is presized for the number of elements it will get and filled in a loop, so generating one takes
+ * time linear in its size. Sets and maps can end up smaller than that when the same element or key is generated
+ * more than once. They are linked so that their iteration order is the order in which their elements were generated.
+ */
+
 internal class DefaultListGen<T>(private val tGen: Gen<T>) :
     Gen<List<T>> {
     override fun generate(complexity: Int, random: Random): List<T> {
-        fun genList(complexity: Int, length: Int): List<T> =
-            if (length <= 0) {
-                listOf()
-            } else {
-                listOf(tGen(random.nextInt(complexity + 1), random)) + genList(complexity, length - 1)
-            }
-        return genList(complexity, random.nextInt(complexity + 1))
+        val size = random.nextInt(complexity + 1)
+        val list = ArrayList<T>(size)
+        repeat(size) { list.add(tGen(random.nextInt(complexity + 1), random)) }
+        return list
     }
 }
 
-internal val defaultIntGen = object : Gen<Int> {
-    override fun generate(complexity: Int, random: Random): Int {
+internal class DefaultSetGen<T>(private val tGen: Gen<T>) :
+    Gen<Set<T>> {
+    override fun generate(complexity: Int, random: Random): Set<T> {
+        val size = random.nextInt(complexity + 1)
+        val set = LinkedHashSet<T>(hashCapacity(size))
+        repeat(size) { set.add(tGen(random.nextInt(complexity + 1), random)) }
+        return set
+    }
+}
+
+internal class DefaultMapGen<K, V>(private val kGen: Gen<K>, private val vGen: Gen<V>) :
+    Gen<Map<K, V>> {
+    override fun generate(complexity: Int, random: Random): Map<K, V> {
+        val size = random.nextInt(complexity + 1)
+        val map = LinkedHashMap<K, V>(hashCapacity(size))
+        repeat(size) {
+            val key = kGen(random.nextInt(complexity + 1), random)
+            map[key] = vGen(random.nextInt(complexity + 1), random)
+        }
+        return map
+    }
+}
+
+private const val HASH_LOAD_FACTOR = 0.75f
+
+// The initial capacity at which a hash-based collection holds size elements without rehashing
+private fun hashCapacity(size: Int): Int = (size / HASH_LOAD_FACTOR).toInt() + 1
+
+/**
+ * Makes the default generators for collections from the generators for their type arguments.
+ * See NOTE: [Collection generators]
+ */
+internal val collectionGenerators: Map<Class<*>, (List<Gen<*>>) -> Gen<*>> = mapOf(
+    List::class.java to { args: List<Gen<*>> -> DefaultListGen(args[0]) },
+    Set::class.java to { args: List<Gen<*>> -> DefaultSetGen(args[0]) },
+    Map::class.java to { args: List<Gen<*>> -> DefaultMapGen(args[0], args[1]) }
+)
+
+internal val defaultIntGen = object : IntGen {
+    override fun generateInt(complexity: Int, random: Random): Int {
         var comp = complexity
         if (complexity > Int.MAX_VALUE / 2) {
             comp = Int.MAX_VALUE / 2
@@ -256,29 +524,30 @@ internal val defaultIntGen = object : Gen<Int> {
     }
 }
 private const val MAX_FP_DENOMINATOR = (1e10 - 1)
-internal val defaultDoubleGen = object : Gen<Double> {
-    override fun generate(complexity: Int, random: Random): Double {
+internal val defaultDoubleGen = object : DoubleGen {
+    override fun generateDouble(complexity: Int, random: Random): Double {
         val denom = random.nextDouble() * MAX_FP_DENOMINATOR + 1
         val num = (random.nextDouble() * 2 * complexity * denom) - complexity * denom
         return num / denom
     }
 }
-internal val defaultFloatGen = object : Gen<Float> {
-    override fun generate(complexity: Int, random: Random): Float {
-        return defaultDoubleGen(complexity, random).toFloat() // if complexity is > 1e38, this stops being uniform
+internal val defaultFloatGen = object : FloatGen {
+    override fun generateFloat(complexity: Int, random: Random): Float {
+        // if complexity is > 1e38, this stops being uniform
+        return defaultDoubleGen.generateDouble(complexity, random).toFloat()
     }
 }
-internal val defaultByteGen = object : Gen<Byte> {
-    override fun generate(complexity: Int, random: Random): Byte {
+internal val defaultByteGen = object : ByteGen {
+    override fun generateByte(complexity: Int, random: Random): Byte {
         return (random.nextInt(complexity * 2 + 1) - complexity).toByte()
     }
 }
-internal val defaultShortGen = object : Gen<Short> {
-    override fun generate(complexity: Int, random: Random): Short {
+internal val defaultShortGen = object : ShortGen {
+    override fun generateShort(complexity: Int, random: Random): Short {
         return (random.nextInt(complexity * 2 + 1) - complexity).toShort()
     }
 }
-internal val defaultLongGen = object : Gen<Long> {
+internal val defaultLongGen = object : LongGen {
     // see Random.nextInt(int) algorithm.
     private fun Random.nextLong(bound: Long): Long {
         var bits: Long
@@ -290,7 +559,7 @@ internal val defaultLongGen = object : Gen<Long> {
         return value
     }
 
-    override fun generate(complexity: Int, random: Random): Long {
+    override fun generateLong(complexity: Int, random: Random): Long {
         val complexityScaledToLargeValueRange = (complexity.toLong() * complexity.toLong() * 2).coerceAtLeast(0)
         return random.nextLong(complexityScaledToLargeValueRange * 2 + 1) - complexityScaledToLargeValueRange
     }
@@ -301,10 +570,10 @@ private const val NUM_PRINTABLE_ASCII_CHARACTERS = LAST_PRINTABLE_ASCII - FIRST_
 private const val FIRST_ASTRAL_PLANE_UNICODE = 0x10000
 private const val UNICODE_CHANCE = 0.15
 private const val UNICODE_CHANCE_COMPLEXITY_SCALE = 32
-internal val defaultCharGen = object : Gen<Char> {
+internal val defaultCharGen = object : CharGen {
     private fun Char.isPrintableAscii(): Boolean = this.toInt() in FIRST_PRINTABLE_ASCII..LAST_PRINTABLE_ASCII
 
-    private fun Char.isPrint(): Boolean = isPrintableAscii() || Character.UnicodeBlock.of(this) in setOf(
+    private val printBlocks: Set<Character.UnicodeBlock> = setOf(
         Character.UnicodeBlock.CYRILLIC,
         Character.UnicodeBlock.CYRILLIC_SUPPLEMENTARY,
         Character.UnicodeBlock.TAMIL,
@@ -319,30 +588,37 @@ internal val defaultCharGen = object : Gen<Char> {
         Character.UnicodeBlock.OLD_PERSIAN
     )
 
-    override fun generate(complexity: Int, random: Random): Char {
+    private fun Char.isPrint(): Boolean = isPrintableAscii() || Character.UnicodeBlock.of(this) in printBlocks
+
+    // Whether each char below the astral planes is one that most fonts can print.
+    // Checking this table draws the same chars from the random as checking their blocks each time did,
+    // so a seed still produces the same tests, but without looking up a block for every draw.
+    private val printable: BooleanArray = BooleanArray(FIRST_ASTRAL_PLANE_UNICODE) { it.toChar().isPrint() }
+
+    override fun generateChar(complexity: Int, random: Random): Char {
         val complexityScaledUnicodeChance = complexity * UNICODE_CHANCE / UNICODE_CHANCE_COMPLEXITY_SCALE
         return if (random.nextDouble() < min(
             complexityScaledUnicodeChance,
             UNICODE_CHANCE
         )
         ) {
-            var char: Char
+            var code: Int
             do {
-                char = random.nextInt(FIRST_ASTRAL_PLANE_UNICODE).toChar()
-            } while (!char.isPrint())
-            char
+                code = random.nextInt(FIRST_ASTRAL_PLANE_UNICODE)
+            } while (!printable[code])
+            code.toChar()
         } else {
             (random.nextInt(NUM_PRINTABLE_ASCII_CHARACTERS) + FIRST_PRINTABLE_ASCII).toChar()
         }
     }
 }
-internal val defaultAsciiGen = object : Gen<Char> {
-    override fun generate(complexity: Int, random: Random): Char {
+internal val defaultAsciiGen = object : CharGen {
+    override fun generateChar(complexity: Int, random: Random): Char {
         return (random.nextInt(NUM_PRINTABLE_ASCII_CHARACTERS) + FIRST_PRINTABLE_ASCII).toChar()
     }
 }
-internal val defaultBooleanGen = object : Gen<Boolean> {
-    override fun generate(complexity: Int, random: Random): Boolean = random.nextBoolean()
+internal val defaultBooleanGen = object : BooleanGen {
+    override fun generateBoolean(complexity: Int, random: Random): Boolean = random.nextBoolean()
 }
 internal val primitiveGenerators: Map<Class<*>, Gen<*>> = mapOf(
     Int::class.java to defaultIntGen,
@@ -0,0 +1,81 @@
+package edu.illinois.cs.cs125.answerable.testing
+
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/* NOTE: [Invocation time budgets]
+ * With TestRunnerArgs.invocationTimeout set, every call of the submission's method gets that many milliseconds.
+ * A single thread shared by all test runs stops the calls that go over their budget, the same way the default
+ * sandbox stops a whole run that goes over its @Timeout: with Thread.stop. The call is then recorded as
+ * Behavior.TIMED_OUT and its test fails, so a submission stuck in an infinite loop fails that test quickly instead
+ * of using up the whole run's time. Whether testing goes on after that is up to TestRunnerArgs.maxFailures,
+ * like for any other failed test.
+ *
+ * Thread.stop is asynchronous, so a call can finish just as the watchdog decides to stop it. Each call's watch
+ * goes from RUNNING to either DONE (by the tested thread) or EXPIRED (by the watchdog) exactly once. A ThreadDeath
+ * that ends the call after its watch expired is the watchdog's, and is swallowed. The submission may have caught it
+ * instead (catching Throwable is common), so a call that returns after its watch expired also counts as timed out,
+ * without waiting for a ThreadDeath that may never come. Any other ThreadDeath, one that arrives while the watch is
+ * still running or after the call returned, can't be told apart from e.g. the sandbox's timeout and is rethrown.
+ */
+
+/**
+ * Stops calls that go over their time budget. See NOTE: [Invocation time budgets]
+ */
+internal object InvocationWatchdog {
+    private const val RUNNING = 0
+    private const val DONE = 1
+    private const val EXPIRED = 2
+    private const val UNSTOPPABLE = 3
+
+    private val timer = ScheduledThreadPoolExecutor(1) { task ->
+        Thread(task, "answerable-invocation-watchdog").apply { isDaemon = true }
+    }.apply {
+        removeOnCancelPolicy = true
+        // Sandboxes may not allow tested threads to start threads, so the watchdog thread starts here
+        prestartAllCoreThreads()
+    }
+
+    /**
+     * Makes sure that the watchdog thread is running.
+     * Call this outside the sandbox before running tests with a time budget.
+     */
+    fun start() {
+        check(!timer.isShutdown) { "The invocation watchdog has been shut down" }
+    }
+
+    /**
+     * Runs [invocation] on the current thread, stopping it if it takes longer than [budget] milliseconds.
+     * @return whether the invocation finished within its budget
+     */
+    fun runWithin(budget: Long, invocation: Runnable): Boolean {
+        val thread = Thread.currentThread()
+        val state = AtomicInteger(RUNNING)
+        val alarm = timer.schedule(Runnable { expire(thread, state) }, budget, TimeUnit.MILLISECONDS)
+        var returned = false
+        try {
+            invocation.run()
+            returned = true
+        } catch (e: ThreadDeath) {
+            if (returned || state.get() != EXPIRED) throw e
+        } finally {
+            alarm.cancel(false)
+        }
+        val finished = returned && state.compareAndSet(RUNNING, DONE)
+        // Stopping a thread also interrupts it
+        if (!finished) Thread.interrupted()
+        return finished
+    }
+
+    @Suppress("DEPRECATION")
+    private fun expire(thread: Thread, state: AtomicInteger) {
+        if (!state.compareAndSet(RUNNING, EXPIRED)) return
+        try {
+            thread.stop()
+        } catch (e: UnsupportedOperationException) {
+            // Newer JVMs can't stop threads, so the call runs to completion and is still reported as timed out
+            state.set(UNSTOPPABLE)
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package edu.illinois.cs.cs125.answerable.testing
+
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.lang.invoke.WrongMethodTypeException
+import java.lang.reflect.Constructor
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.Random
+
+/* NOTE: [Method handle invokers]
+ * The methods Answerable calls for every test (the solutions, preconditions, verifiers, generators, @Next methods,
+ * and receiver constructors) are bound to a MethodHandle once, when the test generator or runner is made, instead of
+ * going through Method.invoke on each call. Reflective calls repeat their access checks and box every primitive,
+ * and they only get fast after a warm-up that most test runs are too short to reach.
+ *
+ * Only the generator and @Next invokers avoid boxing, for their complexity or iteration and for primitive generated
+ * values. The solutions, preconditions, and verifiers are still called with their arguments boxed in one array,
+ * since that is how the testing loop keeps them. See NOTE: [Argument frames]
+ *
+ * Everything that the target throws is wrapped in an InvocationTargetException, like Method.invoke does,
+ * so callers can still tell the submission's exceptions apart from Answerable's. The wrapping is done by the handle
+ * of the target itself, before any conversion of its arguments or return value, so a failed conversion isn't
+ * mistaken for something the target threw: like Method.invoke, it throws an IllegalArgumentException instead.
+ *
+ * The handle that catches the target's exceptions only mentions Object and JDK types. Building the catch caches its
+ * parameter types on a collector handle that the JDK shares between all callers (JDK 8 through 19 hold the last one
+ * strongly), which would keep the last submission called this way loaded. So reference arguments are cast to their
+ * parameter types inside the catch, by a filter that reports a failed cast as an IllegalArgumentException.
+ */
+
+private val lookup: MethodHandles.Lookup = MethodHandles.lookup()
+
+/**
+ * An argument that a target can't be called with. Not wrapped in an InvocationTargetException.
+ */
+private class ArgumentTypeMismatch(cause: ClassCastException) :
+    IllegalArgumentException("argument type mismatch", cause)
+
+@Suppress("unused") // Called through castArgument
+private fun castArgument(type: Class<*>, value: Any?): Any? =
+    try {
+        type.cast(value)
+    } catch (e: ClassCastException) {
+        throw ArgumentTypeMismatch(e)
+    }
+
+private val castArgument: MethodHandle = lookup.findStatic(
+    lookup.lookupClass(),
+    "castArgument",
+    MethodType.methodType(Any::class.java, Class::class.java, Any::class.java)
+)
+
+@Suppress("unused") // Called through targetException
+private fun targetException(thrown: Throwable): Throwable = thrown as? ArgumentTypeMismatch
+    ?: InvocationTargetException(thrown)
+
+private val targetException: MethodHandle = lookup.findStatic(
+    lookup.lookupClass(),
+    "targetException",
+    MethodType.methodType(Throwable::class.java, Throwable::class.java)
+)
+
+/**
+ * Wraps everything that this handle throws in an InvocationTargetException.
+ * The returned handle takes and returns Object in place of reference types. See NOTE: [Method handle invokers]
+ */
+private fun MethodHandle.wrappingTargetExceptions(): MethodHandle {
+    val casts = type().parameterList().map { type ->
+        if (type.isPrimitive || type == Any::class.java) null
+        else castArgument.bindTo(type).asType(MethodType.methodType(type, Any::class.java))
+    }
+    val erased = MethodHandles.filterArguments(this, 0, *casts.toTypedArray())
+        .let { if (type().returnType().isPrimitive) it else it.asType(it.type().changeReturnType(Any::class.java)) }
+    val rethrow = MethodHandles.filterArguments(
+        MethodHandles.throwException(erased.type().returnType(), Throwable::class.java),
+        0,
+        targetException
+    )
+    return MethodHandles.catchException(
+        erased,
+        Throwable::class.java,
+        MethodHandles.dropArguments(rethrow, 1, erased.type().parameterList())
+    )
+}
+
+private fun Method.unreflect(): MethodHandle =
+    lookup.unreflect(also { it.isAccessible = true }).asFixedArity().wrappingTargetExceptions()
+
+/**
+ * Makes a call through a handle whose target was wrapped with [wrappingTargetExceptions], turning a failure to
+ * convert the arguments or the return value into an IllegalArgumentException.
+ */
+@Suppress("TooGenericExceptionCaught")
+private inline fun <T> invokeTarget(call: () -> T): T =
+    try {
+        call()
+    } catch (e: ClassCastException) {
+        throw IllegalArgumentException("argument type mismatch", e)
+    } catch (e: NullPointerException) {
+        // Unboxing a null argument for a primitive parameter
+        throw IllegalArgumentException(e)
+    } catch (e: WrongMethodTypeException) {
+        throw IllegalArgumentException(e)
+    }
+
+/**
+ * Calls a static or instance [method] with its arguments in an array, as [Method.invoke] would.
+ * The receiver is ignored if the method is static.
+ */
+internal class MethodInvoker(val method: Method) {
+    private val handle: MethodHandle = method.unreflect()
+        .let { if (Modifier.isStatic(method.modifiers)) MethodHandles.dropArguments(it, 0, Any::class.java) else it }
+        .asType(MethodType.genericMethodType(method.parameterCount + 1))
+        .asSpreader(Array<Any?>::class.java, method.parameterCount)
+
+    operator fun invoke(receiver: Any?, args: Array<Any?>): Any? =
+        invokeTarget { handle.invokeExact(receiver, args) as Any? }
+}
+
+/**
+ * Calls a no-argument [constructor].
+ */
+internal class ConstructorInvoker(constructor: Constructor<*>) {
+    private val handle: MethodHandle = lookup.unreflectConstructor(constructor.also { it.isAccessible = true })
+        .wrappingTargetExceptions()
+        .asType(MethodType.genericMethodType(0))
+
+    operator fun invoke(): Any? = invokeTarget { handle.invokeExact() as Any? }
+}
+
+/**
+ * Calls a @Generator method, which takes (int, Random), without boxing the complexity.
+ */
+internal class GeneratorInvoker(method: Method) {
+    private val handle: MethodHandle = method.unreflect()
+        .asType(MethodType.methodType(Any::class.java, Int::class.javaPrimitiveType, Random::class.java))
+
+    operator fun invoke(complexity: Int, random: Random): Any? =
+        invokeTarget { handle.invokeExact(complexity, random) as Any? }
+}
+
+/**
+ * Calls a @Generator method that returns a primitive, without boxing the complexity or the generated value.
+ * Only the `invoke` function for the method's own return type may be called.
+ */
+internal class PrimitiveGeneratorInvoker(method: Method) {
+    init {
+        require(method.returnType.isPrimitive && method.returnType != Void.TYPE) {
+            "${method.name} does not return a primitive"
+        }
+        require(method.parameterTypes.toList() == listOf(Int::class.javaPrimitiveType, Random::class.java)) {
+            "${method.name} does not take (int, Random)"
+        }
+    }
+
+    private val handle: MethodHandle = method.unreflect()
+        .asType(MethodType.methodType(method.returnType, Int::class.javaPrimitiveType, Random::class.java))
+
+    fun invokeBoolean(complexity: Int, random: Random): Boolean =
+        invokeTarget { handle.invokeExact(complexity, random) as Boolean }
+
+    fun invokeByte(complexity: Int, random: Random): Byte =
+        invokeTarget { handle.invokeExact(complexity, random) as Byte }
+
+    fun invokeShort(complexity: Int, random: Random): Short =
+        invokeTarget { handle.invokeExact(complexity, random) as Short }
+
+    fun invokeInt(complexity: Int, random: Random): Int =
+        invokeTarget { handle.invokeExact(complexity, random) as Int }
+
+    fun invokeLong(complexity: Int, random: Random): Long =
+        invokeTarget { handle.invokeExact(complexity, random) as Long }
+
+    fun invokeFloat(complexity: Int, random: Random): Float =
+        invokeTarget { handle.invokeExact(complexity, random) as Float }
+
+    fun invokeDouble(complexity: Int, random: Random): Double =
+        invokeTarget { handle.invokeExact(complexity, random) as Double }
+
+    fun invokeChar(complexity: Int, random: Random): Char =
+        invokeTarget { handle.invokeExact(complexity, random) as Char }
+}
+
+/**
+ * Calls a @Next method, which takes (ReferenceClass, int, Random), without boxing the iteration.
+ */
+internal class NextInvoker(method: Method) {
+    private val handle: MethodHandle = method.unreflect()
+        .asType(
+            MethodType.methodType(Any::class.java, Any::class.java, Int::class.javaPrimitiveType, Random::class.java)
+        )
+
+    operator fun invoke(current: Any?, iteration: Int, random: Random): Any? =
+        invokeTarget { handle.invokeExact(current, iteration, random) as Any? }
+}
@@ -0,0 +1,107 @@
+package edu.illinois.cs.cs125.answerable.testing
+
+import edu.illinois.cs.cs125.answerable.api.TestOutput
+import java.util.RandomAccess
+
+/**
+ * The [ExecutedTestStep.assertErr] of a test whose submission behaved differently from the reference solution,
+ * as found by Answerable itself rather than a @Verify method: because the outputs of a test without a @Verify method
+ * differ, or because the submission went over its [TestRunnerArgs.invocationTimeout].
+ *
+ * Only the message describes the failure, so no stack trace is recorded.
+ */
+class OutputMismatchError internal constructor(message: String) : AssertionError(message) {
+    override fun fillInStackTrace(): Throwable = this
+}
+
+/**
+ * Compares a submission's behavior to the reference solution's, for tests without a @Verify method: the class of
+ * anything they threw, their return values (see [outputsEqual]), and any output they printed.
+ *
+ * @return a description of the first difference, or null if they behaved the same
+ */
+internal fun compareOutputs(expected: TestOutput<*>, actual: TestOutput<*>): OutputMismatchError? {
+    val expectedThrew = expected.threw?.javaClass
+    val actualThrew = actual.threw?.javaClass
+    return when {
+        expectedThrew != actualThrew -> mismatch("Thrown exception", expectedThrew?.name, actualThrew?.name)
+        !outputsEqual(expected.output, actual.output) -> mismatch("Return value", expected.output, actual.output)
+        expected.stdOut != actual.stdOut -> mismatch("Standard output", expected.stdOut, actual.stdOut)
+        expected.stdErr != actual.stdErr -> mismatch("Standard error", expected.stdErr, actual.stdErr)
+        else -> null
+    }
+}
+
+private fun mismatch(what: String, expected: Any?, actual: Any?): OutputMismatchError =
+    OutputMismatchError("$what: expected: <${expected.describe()}> but was: <${actual.describe()}>")
+
+private fun Any?.describe(): String = when (this) {
+    is Array<*> -> contentDeepToString()
+    is BooleanArray -> contentToString()
+    is ByteArray -> contentToString()
+    is CharArray -> contentToString()
+    is ShortArray -> contentToString()
+    is IntArray -> contentToString()
+    is LongArray -> contentToString()
+    is FloatArray -> contentToString()
+    is DoubleArray -> contentToString()
+    else -> toString()
+}
+
+/**
+ * Whether a submission's return value equals the reference solution's.
+ *
+ * Arrays are compared by their contents, lists element by element, and maps by their values, all recursively,
+ * so that e.g. a `List<int[]>` can be compared. Anything else is compared with the [expected] value's `equals`.
+ */
+@Suppress("ComplexMethod")
+internal fun outputsEqual(expected: Any?, actual: Any?): Boolean {
+    if (expected === actual) return true
+    if (expected == null || actual == null) return false
+    return when (expected) {
+        is Array<*> -> actual is Array<*> && arraysEqual(expected, actual)
+        is BooleanArray -> actual is BooleanArray && expected.contentEquals(actual)
+        is ByteArray -> actual is ByteArray && expected.contentEquals(actual)
+        is CharArray -> actual is CharArray && expected.contentEquals(actual)
+        is ShortArray -> actual is ShortArray && expected.contentEquals(actual)
+        is IntArray -> actual is IntArray && expected.contentEquals(actual)
+        is LongArray -> actual is LongArray && expected.contentEquals(actual)
+        is FloatArray -> actual is FloatArray && expected.contentEquals(actual)
+        is DoubleArray -> actual is DoubleArray && expected.contentEquals(actual)
+        is List<*> -> actual is List<*> && listsEqual(expected, actual)
+        is Map<*, *> -> actual is Map<*, *> && mapsEqual(expected, actual)
+        else -> expected == actual
+    }
+}
+
+private fun arraysEqual(expected: Array<*>, actual: Array<*>): Boolean {
+    if (expected.size != actual.size) return false
+    for (i in expected.indices) {
+        if (!outputsEqual(expected[i], actual[i])) return false
+    }
+    return true
+}
+
+@Suppress("ReturnCount")
+private fun listsEqual(expected: List<*>, actual: List<*>): Boolean {
+    if (expected.size != actual.size) return false
+    if (expected is RandomAccess && actual is RandomAccess) {
+        for (i in expected.indices) {
+            if (!outputsEqual(expected[i], actual[i])) return false
+        }
+        return true
+    }
+    val actualElements = actual.iterator()
+    for (element in expected) {
+        if (!outputsEqual(element, actualElements.next())) return false
+    }
+    return true
+}
+
+private fun mapsEqual(expected: Map<*, *>, actual: Map<*, *>): Boolean {
+    if (expected.size != actual.size) return false
+    for ((key, value) in expected) {
+        if (!outputsEqual(value, actual[key]) || (value == null && !actual.containsKey(key))) return false
+    }
+    return true
+}
@@ -0,0 +1,328 @@
+package edu.illinois.cs.cs125.answerable.testing
+
+import edu.illinois.cs.cs125.answerable.TestGenerator
+import edu.illinois.cs.cs125.answerable.api.TestOutput
+import edu.illinois.cs.cs125.answerable.classmanipulation.MirrorCache
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InvalidClassException
+import java.io.InputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.ObjectStreamClass
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.Arrays
+import java.util.Collections
+
+/* NOTE: [Reference output cache]
+ * Given the same seed and resolved TestRunnerArgs, the reference side of a test run (the receivers, the arguments,
+ * whether the precondition held, and the reference's TestOutputs) is the same for every submission: it only draws
+ * from the reference's own random stream and generators. So questions loaded with cacheReferenceOutputs remember
+ * the reference side of each complete run, and later runs with the same seed and arguments replay it, only running
+ * the submission side. When a whole class is graded with one seed, that saves nearly half of the work.
+ *
+ * Runs are only remembered for static @Solution methods. A receiver is one live object that later tests of the same
+ * run keep calling methods on, so a remembered receiver would show a verifier its state at the end of the run rather
+ * than right after the test. Nor are they remembered if the reference's classes have static state beyond constants:
+ * @Generators that keep e.g. a counter in a static field make the reference side of a run depend on the runs before
+ * it, and a replayed run doesn't call them. Runs that end early (because of TestRunnerArgs.maxFailures, a timeout, or
+ * a failure budget shared between shards) are not remembered, since the rest of their reference side is unknown.
+ *
+ * Replayed outputs and arguments are the same objects in every run that replays them, possibly at the same time.
+ * A @Verify method is handed the reference's outputs and arguments and could modify them for every later run, so
+ * runs of questions with one aren't remembered. Without one, the outputs are only compared, and TestStepListeners
+ * of such questions must only read them.
+ *
+ * The live outputs are only ever replayed in the TestGenerator that recorded them, since other TestGenerators for
+ * the same reference have their own copies of its classes. Runs can also be saved to an archive with Java
+ * serialization (see [writeArchive]); a TestGenerator for the same bytecode, even in another process, deserializes
+ * them with its own classes before its first run that needs them. Runs whose outputs aren't serializable are only
+ * kept in memory.
+ *
+ * An archive could come from anywhere, so reading it must not run the deserialization code of arbitrary classes on
+ * the classpath, including the JDK's. Only the reference's own classes (those defined by the TestGenerator's loader),
+ * primitives, strings, boxed values, big numbers, the common exceptions of java.lang and java.util, and the common
+ * java.util collections can be read back (see [allowedJdkClasses]); a run that contains anything else is ignored,
+ * and is recorded again the next time it is tested.
+ */
+
+/**
+ * Remembers the reference side of recent test runs. See NOTE: [Reference output cache]
+ */
+internal object ReferenceOutputCache {
+
+    private const val MAX_ENTRIES = 64
+    private const val ARCHIVE_MAGIC = 0x41524546 // "AREF"
+    private const val ARCHIVE_FORMAT = 2
+
+    /**
+     * Identifies the reference side of one test run.
+     * @param bytecodeDigest the digest of the bytecode of the reference class, its control class,
+     * and the classes nested in them
+     * @param solutionName the name of the @Solution that was tested
+     * @param seed the seed of the run
+     * @param testRunnerArgs the resolved arguments of the run
+     * @param shard the index of the shard, or 0 if the run wasn't sharded
+     * @param numShards the number of shards the run was split into
+     */
+    data class Key(
+        val bytecodeDigest: String,
+        val solutionName: String,
+        val seed: Long,
+        val testRunnerArgs: TestRunnerArgs,
+        val shard: Int,
+        val numShards: Int
+    )
+
+    /**
+     * The reference side of one iteration of the testing loop.
+     * @param receiver the reference receiver
+     * @param args the arguments for the reference
+     * @param output what the reference did, or null if the precondition didn't hold and the test was discarded
+     */
+    class Step(val receiver: Any?, val args: Array<Any?>, val output: TestOutput<Any?>?)
+
+    /**
+     * A remembered run: its [steps] as live objects of the [owner]'s classes, its [serialized] steps, or both.
+     */
+    private class Entry(val owner: TestGenerator?, val steps: List<Step>?, val serialized: ByteArray?)
+
+    @Suppress("MagicNumber")
+    private val entries = object : LinkedHashMap<Key, ReferenceOutputCache.Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, ReferenceOutputCache.Entry>?): Boolean =
+            size > MAX_ENTRIES
+    }
+
+    /**
+     * Gets the steps of a run that the [testGenerator] can replay, if it has recorded or [prepare]d them.
+     */
+    fun get(testGenerator: TestGenerator, key: Key): List<Step>? =
+        synchronized(entries) { entries[key]?.takeIf { it.owner === testGenerator }?.steps }
+
+    /**
+     * Remembers the steps of a complete run of the [testGenerator].
+     */
+    fun record(testGenerator: TestGenerator, key: Key, steps: List<Step>) {
+        synchronized(entries) { entries[key] = Entry(testGenerator, steps, null) }
+    }
+
+    /**
+     * Makes a run remembered for other classes, e.g. one read from an archive, replayable by the [testGenerator]
+     * by deserializing it with the [testGenerator]'s classes. Must be called outside the sandbox.
+     */
+    fun prepare(testGenerator: TestGenerator, key: Key) {
+        val entry = synchronized(entries) { entries[key] } ?: return
+        if (entry.owner === testGenerator) return
+        val serialized = entry.serialized ?: entry.steps?.let(::serialize) ?: return
+        val steps = deserialize(serialized, testGenerator.usableReferenceClass.classLoader) ?: return
+        synchronized(entries) { entries[key] = Entry(testGenerator, steps, serialized) }
+    }
+
+    /**
+     * Forgets the live steps recorded by a [testGenerator] that is being closed.
+     * Runs that were archived or prepared from an archive stay available to other TestGenerators.
+     */
+    fun forget(testGenerator: TestGenerator) {
+        synchronized(entries) {
+            entries.entries.filter { it.value.owner === testGenerator }.forEach { (key, entry) ->
+                if (entry.serialized == null) {
+                    entries.remove(key)
+                } else {
+                    entries[key] = Entry(null, null, entry.serialized)
+                }
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(entries) { entries.clear() }
+    }
+
+    /**
+     * Writes the remembered runs whose outputs can be serialized to an archive.
+     * @return the number of runs written
+     */
+    fun writeArchive(output: DataOutputStream): Int {
+        val toWrite = synchronized(entries) { entries.toList() }.mapNotNull { (key, entry) ->
+            (entry.serialized ?: entry.steps?.let(::serialize))?.let { key to it }
+        }
+        output.writeInt(ARCHIVE_MAGIC)
+        output.writeInt(ARCHIVE_FORMAT)
+        output.writeUTF(MirrorCache.archiveVersion)
+        output.writeInt(toWrite.size)
+        toWrite.forEach { (key, serialized) ->
+            output.writeUTF(key.bytecodeDigest)
+            output.writeUTF(key.solutionName)
+            output.writeLong(key.seed)
+            writeArgs(output, key.testRunnerArgs)
+            output.writeInt(key.shard)
+            output.writeInt(key.numShards)
+            output.writeInt(serialized.size)
+            output.write(serialized)
+        }
+        return toWrite.size
+    }
+
+    /**
+     * Adds the runs in an archive written by [writeArchive] to the cache.
+     * Archives written by a different version of Answerable are ignored.
+     * @return the number of runs read
+     */
+    fun readArchive(input: DataInputStream): Int {
+        if (input.readInt() != ARCHIVE_MAGIC) throw IllegalArgumentException("Not a reference output archive")
+        if (input.readInt() != ARCHIVE_FORMAT || input.readUTF() != MirrorCache.archiveVersion) return 0
+        val count = input.readInt()
+        repeat(count) {
+            val key = Key(
+                bytecodeDigest = input.readUTF(),
+                solutionName = input.readUTF(),
+                seed = input.readLong(),
+                testRunnerArgs = readArgs(input),
+                shard = input.readInt(),
+                numShards = input.readInt()
+            )
+            val serialized = ByteArray(input.readInt()).also { input.readFully(it) }
+            synchronized(entries) { if (key !in entries) entries[key] = Entry(null, null, serialized) }
+        }
+        return count
+    }
+
+    /**
+     * Writes resolved [TestRunnerArgs], all of whose properties are set.
+     * A property added to TestRunnerArgs later is read back as null, so the keys read from older archives never
+     * match a resolved one.
+     */
+    private fun writeArgs(output: DataOutputStream, args: TestRunnerArgs) {
+        listOf(
+            args.numTests, args.maxDiscards, args.maxOnlyEdgeCaseTests, args.maxOnlySimpleCaseTests,
+            args.numSimpleEdgeMixedTests, args.numAllGeneratedTests, args.numRegressionTests, args.maxComplexity,
+            args.maxFailures, args.invocationTimeout, args.numShards
+        ).forEach { output.writeInt(it!!) }
+        output.writeBoolean(args.lazyOssification!!)
+    }
+
+    private fun readArgs(input: DataInputStream): TestRunnerArgs = TestRunnerArgs(
+        numTests = input.readInt(),
+        maxDiscards = input.readInt(),
+        maxOnlyEdgeCaseTests = input.readInt(),
+        maxOnlySimpleCaseTests = input.readInt(),
+        numSimpleEdgeMixedTests = input.readInt(),
+        numAllGeneratedTests = input.readInt(),
+        numRegressionTests = input.readInt(),
+        maxComplexity = input.readInt(),
+        maxFailures = input.readInt(),
+        invocationTimeout = input.readInt(),
+        numShards = input.readInt(),
+        lazyOssification = input.readBoolean()
+    )
+
+    private fun serialize(steps: List<Step>): ByteArray? = try {
+        val bytes = ByteArrayOutputStream()
+        ObjectOutputStream(bytes).use { output ->
+            output.writeInt(steps.size)
+            steps.forEach { step ->
+                output.writeObject(step.receiver)
+                output.writeObject(step.args)
+                output.writeObject(step.output?.typeOfBehavior)
+                step.output?.also {
+                    output.writeObject(it.output)
+                    output.writeObject(it.threw)
+                    output.writeObject(it.stdOut)
+                    output.writeObject(it.stdErr)
+                }
+            }
+        }
+        bytes.toByteArray()
+    } catch (e: IOException) {
+        // Most likely an output that isn't Serializable
+        null
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun deserialize(serialized: ByteArray, loader: ClassLoader): List<Step>? = try {
+        LoaderObjectInputStream(ByteArrayInputStream(serialized), loader).use { input ->
+            List(input.readInt()) {
+                val receiver = input.readObject()
+                val args = input.readObject() as Array<Any?>
+                val output = (input.readObject() as Behavior?)?.let { behavior ->
+                    TestOutput<Any?>(
+                        typeOfBehavior = behavior,
+                        receiver = receiver,
+                        args = args,
+                        output = input.readObject(),
+                        threw = input.readObject() as Throwable?,
+                        stdOut = input.readObject() as String?,
+                        stdErr = input.readObject() as String?
+                    )
+                }
+                Step(receiver, args, output)
+            }
+        }
+    } catch (e: IOException) {
+        null
+    } catch (e: ClassNotFoundException) {
+        null
+    }
+
+    /**
+     * Resolves classes through the [loader] of a TestGenerator's reference, which has its mirror classes,
+     * allowing only the classes listed in NOTE: [Reference output cache].
+     */
+    private class LoaderObjectInputStream(input: InputStream, private val loader: ClassLoader) :
+        ObjectInputStream(input) {
+        override fun resolveClass(desc: ObjectStreamClass): Class<*> {
+            val resolved = try {
+                Class.forName(desc.name, false, loader)
+            } catch (e: ClassNotFoundException) {
+                super.resolveClass(desc)
+            }
+            if (!isAllowed(resolved)) {
+                throw InvalidClassException(desc.name, "Not allowed in a reference output archive")
+            }
+            return resolved
+        }
+
+        override fun resolveProxyClass(interfaces: Array<out String>?): Class<*> =
+            throw InvalidClassException("Proxies are not allowed in a reference output archive")
+
+        @Suppress("ReturnCount")
+        private fun isAllowed(clazz: Class<*>): Boolean {
+            if (clazz.isArray) return isAllowed(clazz.componentType)
+            if (clazz.isPrimitive || clazz.classLoader === loader || clazz == Behavior::class.java) return true
+            return clazz in allowedJdkClasses
+        }
+    }
+
+    /**
+     * The classes outside the reference that archived arguments, outputs, and exceptions may contain.
+     * Their subclasses aren't allowed unless they are listed too.
+     */
+    private val allowedJdkClasses: Set<Class<*>> = setOf(
+        Any::class.java, String::class.java, Number::class.java, Enum::class.java, StackTraceElement::class.java,
+        java.lang.Boolean::class.java, java.lang.Byte::class.java, java.lang.Short::class.java,
+        java.lang.Integer::class.java, java.lang.Long::class.java, java.lang.Float::class.java,
+        java.lang.Double::class.java, java.lang.Character::class.java, BigInteger::class.java, BigDecimal::class.java,
+
+        java.util.ArrayList::class.java, java.util.LinkedList::class.java, java.util.ArrayDeque::class.java,
+        java.util.HashMap::class.java, java.util.LinkedHashMap::class.java, java.util.TreeMap::class.java,
+        java.util.HashSet::class.java, java.util.LinkedHashSet::class.java, java.util.TreeSet::class.java,
+        // Arrays.asList and the lists Collections makes, which Kotlin's listOf and Throwable also use
+        Arrays.asList<Any>().javaClass, Collections.emptyList<Any>().javaClass, Collections.emptySet<Any>().javaClass,
+        Collections.emptyMap<Any, Any>().javaClass, Collections.singletonList(Any()).javaClass,
+        Collections.singleton(Any()).javaClass, Collections.singletonMap(Any(), Any()).javaClass
+    ) + generateSequence<Class<*>>(Collections.unmodifiableList(ArrayList<Any>()).javaClass) { it.superclass } + setOf(
+        Throwable::class.java, Exception::class.java, RuntimeException::class.java, Error::class.java,
+        ArithmeticException::class.java, ArrayStoreException::class.java, ClassCastException::class.java,
+        IllegalArgumentException::class.java, NumberFormatException::class.java, IllegalStateException::class.java,
+        IndexOutOfBoundsException::class.java, ArrayIndexOutOfBoundsException::class.java,
+        StringIndexOutOfBoundsException::class.java, NegativeArraySizeException::class.java,
+        NullPointerException::class.java, UnsupportedOperationException::class.java,
+        CloneNotSupportedException::class.java, AssertionError::class.java, StackOverflowError::class.java,
+        java.util.NoSuchElementException::class.java, java.util.InputMismatchException::class.java,
+        java.util.ConcurrentModificationException::class.java, java.util.EmptyStackException::class.java
+    )
+}
@@ -9,7 +9,15 @@ import edu.illinois.cs.cs125.answerable.classdesignanalysis.CDAResult
  * The types of behaviors that methods under test can have.
  */
 @Suppress("unused")
-enum class Behavior { RETURNED, THREW, VERIFY_ONLY, GENERATION_FAILED }
+enum class Behavior {
+    RETURNED,
+    THREW,
+    VERIFY_ONLY,
+    GENERATION_FAILED,
+
+    /** The call was stopped for going over [TestRunnerArgs.invocationTimeout]. */
+    TIMED_OUT
+}
 
 /**
  * Represents a single iteration of the main testing loop.
@@ -25,25 +33,25 @@ sealed class TestStep(
 
 /**
  * Represents a test case that was executed.
+ *
+ * The ossified values are usually made when the test runs. If [TestRunnerArgs.lazyOssification] is set,
+ * those of passing tests are only made when first used, from the live objects as they are at that point.
+ * That has to happen before the [edu.illinois.cs.cs125.answerable.TestGenerator] is closed.
  */
 @Suppress("LongParameterList", "Unused")
-class ExecutedTestStep(
+class ExecutedTestStep internal constructor(
     iteration: Int,
     testType: TestType,
-    /** The receiver object passed to the reference. */
-    val refReceiver: OssifiedValue?,
-    /** The receiver object passed to the submission. */
-    val subReceiver: OssifiedValue?,
+    ossifiedRefReceiver: Lazy<OssifiedValue?>,
+    ossifiedSubReceiver: Lazy<OssifiedValue?>,
     /** The receiver object passed to the reference. */
     val refLiveReceiver: Any?,
     /** The receiver object passed to the submission. */
     val subDangerousLiveReceiver: Any?,
     /** Whether or not the test case succeeded. */
     val succeeded: Boolean,
-    /** The behavior of the reference solution. */
-    val refOutput: OssifiedTestOutput,
-    /** The behavior of the submission. */
-    val subOutput: OssifiedTestOutput,
+    ossifiedRefOutput: Lazy<OssifiedTestOutput>,
+    ossifiedSubOutput: Lazy<OssifiedTestOutput>,
     /** The behavior of the reference solution,
      * including live objects with potentially computationally expensive behaviors. */
     val refLiveOutput: TestOutput<Any?>,
@@ -51,7 +59,37 @@ class ExecutedTestStep(
     val subDangerousLiveOutput: TestOutput<Any?>,
     /** The assertion error thrown, if any, by the verifier. */
     val assertErr: Throwable?
-) : TestStep(iteration, false, testType)
+) : TestStep(iteration, false, testType) {
+    constructor(
+        iteration: Int,
+        testType: TestType,
+        refReceiver: OssifiedValue?,
+        subReceiver: OssifiedValue?,
+        refLiveReceiver: Any?,
+        subDangerousLiveReceiver: Any?,
+        succeeded: Boolean,
+        refOutput: OssifiedTestOutput,
+        subOutput: OssifiedTestOutput,
+        refLiveOutput: TestOutput<Any?>,
+        subDangerousLiveOutput: TestOutput<Any?>,
+        assertErr: Throwable?
+    ) : this(
+        iteration, testType, lazyOf(refReceiver), lazyOf(subReceiver), refLiveReceiver, subDangerousLiveReceiver,
+        succeeded, lazyOf(refOutput), lazyOf(subOutput), refLiveOutput, subDangerousLiveOutput, assertErr
+    )
+
+    /** The receiver object passed to the reference. */
+    val refReceiver: OssifiedValue? by ossifiedRefReceiver
+
+    /** The receiver object passed to the submission. */
+    val subReceiver: OssifiedValue? by ossifiedSubReceiver
+
+    /** The behavior of the reference solution. */
+    val refOutput: OssifiedTestOutput by ossifiedRefOutput
+
+    /** The behavior of the submission. */
+    val subOutput: OssifiedTestOutput by ossifiedSubOutput
+}
 
 /**
  * Represents a discarded test case.
@@ -62,19 +100,32 @@ class ExecutedTestStep(
  */
 // "ossified" fields are needed by the Moshi serializer, but they can only
 // ossified while a type pool is still available. Thus, the test step carries
-// them, even though it isn't necessary to _expose_ them.
-class DiscardedTestStep(
+// them (or, with lazy ossification, the means to make them), even though it isn't necessary to _expose_ them.
+class DiscardedTestStep internal constructor(
     iteration: Int,
     testType: TestType,
-    /** The (ossified) receiver object that was passed to the precondition. */
-    internal val ossifiedReceiver: OssifiedValue?,
+    ossifiedReceiver: Lazy<OssifiedValue?>,
     /** The (live) receiver object that was passed to the precondition. */
     val receiver: Any?,
-    /** The other (ossified) arguments that were passed to the precondition. */
-    internal val ossifiedArgs: Array<OssifiedValue?>,
+    ossifiedArgs: Lazy<Array<OssifiedValue?>>,
     /** The other (live) arguments that were passed to the precondition. */
     val args: Array<Any?>
 ) : TestStep(iteration, true, testType) {
+    constructor(
+        iteration: Int,
+        testType: TestType,
+        ossifiedReceiver: OssifiedValue?,
+        receiver: Any?,
+        ossifiedArgs: Array<OssifiedValue?>,
+        args: Array<Any?>
+    ) : this(iteration, testType, lazyOf(ossifiedReceiver), receiver, lazyOf(ossifiedArgs), args)
+
+    /** The (ossified) receiver object that was passed to the precondition. */
+    internal val ossifiedReceiver: OssifiedValue? by ossifiedReceiver
+
+    /** The other (ossified) arguments that were passed to the precondition. */
+    internal val ossifiedArgs: Array<OssifiedValue?> by ossifiedArgs
+
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
         if (javaClass != other?.javaClass) return false
@@ -133,34 +184,53 @@ data class TestingResults(
     val numAllGeneratedTests: Int,
     /** The results of class design analysis between the [referenceClass] and [testedClass]. */
     val classDesignAnalysisResult: CDAResult,
-    /** The list of [TestStep]s that were performed during this test run. */
-    val testSteps: List<TestStep>
+    /**
+     * The list of [TestStep]s that were performed during this test run.
+     * Empty if the steps were passed to a [TestStepListener] instead.
+     */
+    val testSteps: List<TestStep>,
+    /** Whether or not this test run stopped early because [TestRunnerArgs.maxFailures] tests failed. */
+    val stoppedEarly: Boolean = false,
+    /** The number of tests which were not executed because this test run stopped early. */
+    val numRemainingTests: Int = 0,
+    /** The number of test cases which were executed rather than discarded, whether or not they are in [testSteps]. */
+    val numExecutedTests: Int = testSteps.count { it is ExecutedTestStep },
+    /**
+     * The number of executed tests which failed, for test runs whose steps were passed to a [TestStepListener]
+     * instead. Ignored if [testSteps] has all of the executed tests; use [numFailedTests] instead.
+     */
+    val numStreamedFailedTests: Int = 0
 ) {
     @delegate:Transient
     val executedTestSteps: List<ExecutedTestStep> by lazy { testSteps.filterIsInstance<ExecutedTestStep>() }
 
+    /** The number of executed tests which failed. */
     @delegate:Transient
-    val succeeded: Boolean by lazy {
-        classDesignAnalysisResult.allMatch &&
-            executedTestSteps.size == testRunnerArgs.numTests &&
-            executedTestSteps.all { it.succeeded }
+    val numFailedTests: Int by lazy {
+        if (executedTestSteps.size == numExecutedTests) {
+            executedTestSteps.count { !it.succeeded }
+        } else {
+            numStreamedFailedTests
+        }
     }
 
     @delegate:Transient
-    val numFailedTests: Int by lazy {
-        executedTestSteps.count { !it.succeeded }
+    val succeeded: Boolean by lazy {
+        classDesignAnalysisResult.allMatch &&
+            numExecutedTests == testRunnerArgs.numTests &&
+            numFailedTests == 0
     }
 
     fun assertAllSucceeded() {
         check(classDesignAnalysisResult.allMatch) { "Class design analysis failed" }
-        check(executedTestSteps.size == testRunnerArgs.numTests) {
-            "Fewer than the requested number of tests were run: ${executedTestSteps.size} < ${testRunnerArgs.numTests}"
+        check(numExecutedTests == testRunnerArgs.numTests) {
+            "Fewer than the requested number of tests were run: $numExecutedTests < ${testRunnerArgs.numTests}"
         }
-        testSteps.filterIsInstance<ExecutedTestStep>().also {
-            check(it.isNotEmpty()) { "No tests were executed" }
-        }.forEach {
+        check(numExecutedTests != 0) { "No tests were executed" }
+        executedTestSteps.forEach {
             check(it.succeeded) { "Test failed: $it" }
         }
+        check(numFailedTests == 0) { "$numFailedTests tests failed" }
     }
 
     fun assertSomethingFailed() {
@@ -190,9 +260,32 @@ data class TestingBlockCounts(
     var simpleEdgeMixedTests: Int = 0,
     var generatedMixedTests: Int = 0,
     var allGeneratedTests: Int = 0,
-    var regressionTests: Int = 0
+    var regressionTests: Int = 0,
+    var executedTests: Int = 0,
+    var failedTests: Int = 0,
+    var timedOutTests: Int = 0
 ) {
     val numTests: Int
         get() = edgeTests + simpleTests + simpleEdgeMixedTests +
             generatedMixedTests + allGeneratedTests + regressionTests
+
+    internal fun record(step: TestStep) {
+        // Discarded edge and simple cases are counted too, because otherwise the testing loop would keep
+        // trying the same cases and end up killing itself by discarding the same case 1000 times.
+        if (!step.wasDiscarded || step.testType == TestType.Edge || step.testType == TestType.Simple) {
+            when (step.testType) {
+                TestType.Edge -> edgeTests++
+                TestType.Simple -> simpleTests++
+                TestType.EdgeSimpleMixed -> simpleEdgeMixedTests++
+                TestType.Generated -> allGeneratedTests++
+                TestType.GeneratedMixed -> generatedMixedTests++
+                TestType.Regression -> regressionTests++
+            }
+        }
+        if (step.wasDiscarded) discardedTests++ else executedTests++
+        if (step is ExecutedTestStep && !step.succeeded) failedTests++
+        if (step is ExecutedTestStep && step.subDangerousLiveOutput.typeOfBehavior == Behavior.TIMED_OUT) {
+            timedOutTests++
+        }
+    }
 }
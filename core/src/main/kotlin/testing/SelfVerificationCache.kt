@@ -0,0 +1,41 @@
+package edu.illinois.cs.cs125.answerable.testing
+
+import java.util.Collections
+
+/**
+ * Remembers which reference solutions recently passed testing against themselves, so that loading the same
+ * question again (e.g. when a service reloads its questions) doesn't have to repeat the dry run.
+ *
+ * Only passes are remembered; a reference that failed is tested again the next time it is loaded.
+ */
+internal object SelfVerificationCache {
+
+    private const val MAX_ENTRIES = 1024
+
+    /**
+     * Identifies one dry run.
+     * @param bytecodeDigest the digest of the bytecode of the reference class, its control class,
+     * and the classes nested in them
+     * @param solutionName the name of the @Solution that was tested
+     * @param testRunnerArgs the arguments that the dry run used
+     */
+    data class Key(val bytecodeDigest: String, val solutionName: String, val testRunnerArgs: TestRunnerArgs)
+
+    @Suppress("MagicNumber")
+    private val passed: MutableSet<Key> = Collections.newSetFromMap(
+        object : LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Boolean>?): Boolean =
+                size > MAX_ENTRIES
+        }
+    )
+
+    fun hasPassed(key: Key): Boolean = synchronized(passed) { key in passed }
+
+    fun recordPass(key: Key) {
+        synchronized(passed) { passed.add(key) }
+    }
+
+    fun clear() {
+        synchronized(passed) { passed.clear() }
+    }
+}
@@ -25,7 +25,37 @@ data class TestRunnerArgs(
     /** The total number of regression tests to execute. Defaults to [numTests] / 16. */
     val numRegressionTests: Int? = null,
     /** The upper bound on the 'complexity' @[Generator] parameter for this test run. Defaults to 100. */
-    val maxComplexity: Int? = null
+    val maxComplexity: Int? = null,
+    /**
+     * The number of failed tests after which testing stops early, e.g. 1 to stop at the first failure.
+     * Defaults to 0, which never stops early.
+     */
+    val maxFailures: Int? = null,
+    /**
+     * The number of milliseconds that each call of the submission's method may take before it is stopped and its
+     * test fails. Defaults to 0, which leaves only the overall timeout.
+     *
+     * See NOTE: [Invocation time budgets]
+     */
+    val invocationTimeout: Int? = null,
+    /**
+     * The number of independent shards to split the tests into. Shards may run in parallel. Defaults to 1.
+     * Ignored if the solution or submission has static state, or if output is captured.
+     *
+     * See NOTE: [Sharded test runs]
+     */
+    val numShards: Int? = null,
+    /**
+     * Whether the ossified values of passing and discarded tests are only made when first used, from the live
+     * objects as they are at that point, rather than when the test runs. Defaults to false.
+     *
+     * They must be used before the [edu.illinois.cs.cs125.answerable.TestGenerator] is closed. The submission's values
+     * are stringified in the sandbox, within the [invocationTimeout] or else the question's @Timeout.
+     *
+     * Not available in [DefaultTestRunArguments], since it concerns how results are kept rather than which
+     * tests are run.
+     */
+    val lazyOssification: Boolean? = null
 ) {
     fun applyOver(base: TestRunnerArgs): TestRunnerArgs {
         return TestRunnerArgs(
@@ -36,7 +66,11 @@ data class TestRunnerArgs(
             numSimpleEdgeMixedTests = numSimpleEdgeMixedTests ?: base.numSimpleEdgeMixedTests,
             numAllGeneratedTests = numAllGeneratedTests ?: base.numAllGeneratedTests,
             numRegressionTests = numRegressionTests ?: base.numRegressionTests,
-            maxComplexity = maxComplexity ?: base.maxComplexity
+            maxComplexity = maxComplexity ?: base.maxComplexity,
+            maxFailures = maxFailures ?: base.maxFailures,
+            invocationTimeout = invocationTimeout ?: base.invocationTimeout,
+            numShards = numShards ?: base.numShards,
+            lazyOssification = lazyOssification ?: base.lazyOssification
         )
     }
 
@@ -57,7 +91,15 @@ data class TestRunnerArgs(
             numRegressionTests = numRegressionTests
                 ?: resolvedNumTests / DEFAULT_FRACTION_REGRESSION_TESTS,
             maxComplexity = maxComplexity
-                ?: DEFAULT_MAX_COMPLEXITY
+                ?: DEFAULT_MAX_COMPLEXITY,
+            maxFailures = maxFailures
+                ?: DEFAULT_MAX_FAILURES,
+            invocationTimeout = invocationTimeout
+                ?: DEFAULT_INVOCATION_TIMEOUT,
+            numShards = numShards
+                ?: DEFAULT_NUM_SHARDS,
+            lazyOssification = lazyOssification
+                ?: DEFAULT_LAZY_OSSIFICATION
         )
     }
 
@@ -70,6 +112,10 @@ data class TestRunnerArgs(
         const val DEFAULT_FRACTION_GENERATED_TESTS = 2
         const val DEFAULT_FRACTION_REGRESSION_TESTS = 16
         const val DEFAULT_MAX_COMPLEXITY = 100
+        const val DEFAULT_MAX_FAILURES = 0
+        const val DEFAULT_INVOCATION_TIMEOUT = 0
+        const val DEFAULT_NUM_SHARDS = 1
+        const val DEFAULT_LAZY_OSSIFICATION = false
     }
 }
 
@@ -82,7 +128,10 @@ fun DefaultTestRunArguments.asTestRunnerArgs(): TestRunnerArgs {
         numSimpleEdgeMixedTests = if (this.numSimpleEdgeMixedTests < 0) null else this.numSimpleEdgeMixedTests,
         numAllGeneratedTests = if (this.numAllGeneratedTests < 0) null else this.numAllGeneratedTests,
         numRegressionTests = if (this.numRegressionTests < 0) null else this.numRegressionTests,
-        maxComplexity = if (this.maxComplexity < 0) null else this.maxComplexity
+        maxComplexity = if (this.maxComplexity < 0) null else this.maxComplexity,
+        maxFailures = if (this.maxFailures < 0) null else this.maxFailures,
+        invocationTimeout = if (this.invocationTimeout < 0) null else this.invocationTimeout,
+        numShards = if (this.numShards < 0) null else this.numShards
     )
 }
 
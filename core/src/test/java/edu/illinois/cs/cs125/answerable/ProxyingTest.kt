@@ -1,6 +1,9 @@
 package edu.illinois.cs.cs125.answerable
 
 import edu.illinois.cs.cs125.answerable.api.BytecodeProvider
+import edu.illinois.cs.cs125.answerable.api.loadMirrorArchive
+import edu.illinois.cs.cs125.answerable.api.saveMirrorArchive
+import edu.illinois.cs.cs125.answerable.classmanipulation.MirrorCache
 import edu.illinois.cs.cs125.answerable.classmanipulation.TypePool
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkGeneratorMirrorClass
 import edu.illinois.cs.cs125.answerable.classmanipulation.mkOpenMirrorClass
@@ -15,6 +18,8 @@ import examples.proxy.reference.InnerClassGeneratorWidget
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Disabled
 import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.concurrent.Executors
 
 internal class ProxyingTest {
 
@@ -95,6 +100,112 @@ internal class ProxyingTest {
         Assertions.assertNotEquals(first, second)
     }
 
+    @Test
+    fun testCachedMirrors() {
+        val firstPool = TypePool()
+        val first = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, firstPool)
+        val second = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool())
+        Assertions.assertEquals(first.name, second.name)
+        Assertions.assertNotEquals(first, second)
+        Assertions.assertEquals(
+            first.declaredClasses.map { it.name }.sorted(),
+            second.declaredClasses.map { it.name }.sorted()
+        )
+        val third = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, firstPool)
+        Assertions.assertNotEquals(first.name, third.name)
+    }
+
+    @Test
+    fun testDeterministicMirrorNames() {
+        val first = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(), "openref_")
+        MirrorCache.clear()
+        val second = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(), "openref_")
+        val other = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(), "opensub_")
+        Assertions.assertEquals(first.name, second.name)
+        Assertions.assertNotEquals(first.name.substringAfter("openref_"), other.name.substringAfter("opensub_"))
+    }
+
+    @Test
+    fun testMirrorNamesAvoidAncestors() {
+        val parent = TypePool()
+        val inParent = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, parent, "openref_")
+        val inChild = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(parent), "openref_")
+        val inChildLoader = mkOpenMirrorClass(
+            InnerClassGeneratorWidget::class.java,
+            TypePool(null, parent.getLoader().getLoader()),
+            "openref_"
+        )
+        Assertions.assertNotEquals(inParent.name, inChild.name)
+        Assertions.assertNotEquals(inParent.name, inChildLoader.name)
+    }
+
+    @Test
+    fun testMirrorArchive() {
+        val archive = File.createTempFile("mirrors", ".bin").also { it.deleteOnExit() }
+        val first = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(), "openref_")
+        Assertions.assertTrue(saveMirrorArchive(archive) > 0)
+        MirrorCache.clear()
+        Assertions.assertTrue(loadMirrorArchive(archive) > 0)
+        val second = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, TypePool(), "openref_")
+        Assertions.assertEquals(first.name, second.name)
+        Assertions.assertEquals(
+            first.declaredClasses.map { it.name }.sorted(),
+            second.declaredClasses.map { it.name }.sorted()
+        )
+    }
+
+    @Test
+    fun testConcurrentMirrors() {
+        val pool = TypePool()
+        val executor = Executors.newFixedThreadPool(8)
+        val mirrors = try {
+            (1..16).map {
+                executor.submit<Class<*>> {
+                    mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, pool).also { it.declaredClasses }
+                }
+            }.map { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+        Assertions.assertEquals(16, mirrors.map { it.name }.distinct().size)
+        mirrors.forEach { Assertions.assertTrue(pool.definesClass(it.name + "\$NamedInner")) }
+    }
+
+    @Test
+    fun testBytecodeLookupThroughParents() {
+        val parent = TypePool()
+        val mirror = mkOpenMirrorClass(InnerClassGeneratorWidget::class.java, parent)
+        val child = TypePool(parent)
+        Assertions.assertTrue(parent.getBytecodeForClass(mirror).contentEquals(child.getBytecodeForClass(mirror)))
+        Assertions.assertSame(child.getBcelClassForClass(mirror), child.getBcelClassForClass(mirror))
+        Assertions.assertEquals(
+            InnerClassGeneratorWidget::class.java.name,
+            child.getBcelClassForClass(InnerClassGeneratorWidget::class.java).className
+        )
+    }
+
+    @Test
+    fun testSharedProxyClasses() {
+        val first = TypePool().getProxyInstantiator(InnerClassGeneratorWidget::class.java).newInstance()
+        val second = TypePool().getProxyInstantiator(InnerClassGeneratorWidget::class.java).newInstance()
+        Assertions.assertSame(first.javaClass, second.javaClass)
+    }
+
+    @Test
+    fun testLazyInnerMirrors() {
+        val pool = TypePool()
+        val mirror = mkGeneratorMirrorClass(
+            InnerClassGeneratorWidget::class.java, GeneratedWidget::class.java, pool, "lazy_"
+        )
+        Assertions.assertFalse(pool.definesClass(mirror.name + "\$NamedInner"))
+        Assertions.assertTrue(mirror.declaredClasses.any { it.name == mirror.name + "\$NamedInner" })
+        Assertions.assertTrue(pool.definesClass(mirror.name + "\$NamedInner"))
+        val innerInnerName = mirror.name + "\$NamedInner\$InnerInner"
+        Assertions.assertFalse(pool.definesClass(innerInnerName))
+        Assertions.assertTrue(pool.getLoader().getAllBytecode().containsKey(innerInnerName))
+        Assertions.assertTrue(pool.definesClass(innerInnerName))
+    }
+
     @Test
     fun testStaticInitWidget() {
         // CAUTION: There isn't really a viable way to mirror just the parts of <clinit> that have to do with generation.
@@ -1,19 +1,48 @@
 package edu.illinois.cs.cs125.answerable
 
+import edu.illinois.cs.cs125.answerable.api.DefaultOutputCapturer
+import edu.illinois.cs.cs125.answerable.api.TestOutput
+import edu.illinois.cs.cs125.answerable.api.TestStepCollector
+import edu.illinois.cs.cs125.answerable.api.TestStepCounter
+import edu.illinois.cs.cs125.answerable.api.loadReferenceOutputArchive
+import edu.illinois.cs.cs125.answerable.api.saveReferenceOutputArchive
+import edu.illinois.cs.cs125.answerable.testing.Behavior
+import edu.illinois.cs.cs125.answerable.testing.ConstructorInvoker
 import edu.illinois.cs.cs125.answerable.testing.CustomGen
+import edu.illinois.cs.cs125.answerable.testing.DefaultListGen
+import edu.illinois.cs.cs125.answerable.testing.DefaultMapGen
+import edu.illinois.cs.cs125.answerable.testing.DefaultSetGen
 import edu.illinois.cs.cs125.answerable.testing.DiscardedTestStep
 import edu.illinois.cs.cs125.answerable.testing.ExecutedTestStep
 import edu.illinois.cs.cs125.answerable.testing.GeneratorType
+import edu.illinois.cs.cs125.answerable.testing.IntGen
+import edu.illinois.cs.cs125.answerable.testing.MethodInvoker
+import edu.illinois.cs.cs125.answerable.testing.ReferenceOutputCache
 import edu.illinois.cs.cs125.answerable.testing.TestRunnerArgs
+import edu.illinois.cs.cs125.answerable.testing.TestType
+import edu.illinois.cs.cs125.answerable.testing.TestingResults
+import edu.illinois.cs.cs125.answerable.testing.compareOutputs
+import edu.illinois.cs.cs125.answerable.testing.defaultArgs
+import edu.illinois.cs.cs125.answerable.testing.outputsEqual
 import examples.testgeneration.mutablearguments.MutatesArguments
 import examples.testgeneration.validation.reference.Adder
 import examples.testgeneration.validation.reference.ArgsOnStandaloneVerify
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Disabled
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
+import java.io.File
+import java.lang.ref.WeakReference
+import java.lang.reflect.InvocationTargetException
+import java.math.BigInteger
+import java.net.URI
+import java.util.LinkedList
+import java.util.PriorityQueue
+import java.util.concurrent.CompletableFuture
+import javax.management.BadAttributeValueExpException
 import kotlin.random.Random
 
 internal class TestGeneratorTest {
@@ -47,6 +76,21 @@ internal class TestGeneratorTest {
         )
     }
 
+    @Test
+    fun testDefaultCollectionGeneration() {
+        val reference = examples.testgeneration.generators.defaults.reference.CollectionParameters::class.java
+        val tg = TestGenerator(reference)
+        val types = reference.declaredMethods.single { it.name == "test" }.genericParameterTypes
+        assertTrue(tg.generators[GeneratorType(types[0])]?.gen is DefaultListGen<*>)
+        assertTrue(tg.generators[GeneratorType(types[1])]?.gen is DefaultSetGen<*>)
+        assertTrue(tg.generators[GeneratorType(types[2])]?.gen is DefaultMapGen<*, *>)
+
+        val out = tg.loadSubmission(examples.testgeneration.generators.defaults.CollectionParameters::class.java)
+            .runTestsUnsecured(0x0403)
+        out.assertAllSucceeded()
+        assertTrue(out.executedTestSteps.any { it.refOutput.output.toString() != "0" })
+    }
+
     @Test
     fun testOverrideDefaultArrayGenerator() {
         val tg = TestGenerator(examples.testgeneration.generators.reference.OverrideDefaultArray::class.java)
@@ -74,6 +118,24 @@ internal class TestGeneratorTest {
         out.assertAllSucceeded()
     }
 
+    @Test
+    fun testMethodInvokers() {
+        val substring = MethodInvoker(String::class.java.getMethod("substring", Int::class.java, Int::class.java))
+        assertEquals("ell", substring("hello", arrayOf(1, 4)))
+
+        val parseInt = MethodInvoker(Integer::class.java.getMethod("parseInt", String::class.java))
+        assertEquals(42, parseInt("ignored", arrayOf("42")))
+        val thrown = assertThrows<InvocationTargetException> { parseInt(null, arrayOf("forty-two")) }
+        assertTrue(thrown.cause is NumberFormatException)
+        // Arguments that can't be passed to the method are Answerable's mistake, not something the method threw
+        assertThrows<IllegalArgumentException> { parseInt(null, arrayOf(42)) }
+        assertThrows<IllegalArgumentException> { substring("hello", arrayOf(1, null)) }
+        assertThrows<IllegalArgumentException> { substring("hello", arrayOf(1)) }
+
+        val newBuilder = ConstructorInvoker(StringBuilder::class.java.getConstructor())
+        assertEquals(StringBuilder::class.java, newBuilder()?.javaClass)
+    }
+
     @Test
     fun testOverrideDefaultConstructor() {
         val out = TestGenerator(examples.testgeneration.generators.reference.OverrideDefaultCtor::class.java)
@@ -140,6 +202,98 @@ internal class TestGeneratorTest {
         assertEquals("\nTesting reference against itself failed on inputs: []", errMsg)
     }
 
+    @Test
+    fun testReferenceVerificationInBackground() {
+        val failing = TestGenerator(examples.verify.FailsAgainstSelf::class.java, verifyReferenceInBackground = true)
+        val errMsg = assertThrows<AnswerableVerificationException> { failing.awaitReferenceVerification() }.message
+        assertEquals("\nTesting reference against itself failed on inputs: []", errMsg)
+        assertFalse(failing.isReferenceVerified)
+        assertThrows<AnswerableVerificationException> {
+            failing.loadSubmission(examples.verify.FailsAgainstSelf::class.java)
+        }
+
+        val passing = TestGenerator(
+            examples.adder.correct.reference.Adder::class.java,
+            verifyReferenceInBackground = true
+        )
+        passing.loadSubmission(examples.adder.correct.Adder::class.java).runTestsUnsecured(0x0403)
+        passing.awaitReferenceVerification()
+        assertTrue(passing.isReferenceVerified)
+        assertTrue(TestGenerator(examples.adder.correct.reference.Adder::class.java).isReferenceVerified)
+    }
+
+    @Test
+    fun testReferenceOutputCache() {
+        val reference = examples.testgeneration.reference.HalfRight::class.java
+        val submission = examples.testgeneration.HalfRight::class.java
+        val seed = Random.nextLong()
+        val expected = TestGenerator(reference).loadSubmission(submission).runTestsUnsecured(seed)
+
+        val cached = TestGenerator(reference, cacheReferenceOutputs = true)
+        val recorded = cached.loadSubmission(submission).runTestsUnsecured(seed)
+        val replayed = cached.loadSubmission(submission).runTestsUnsecured(seed)
+        assertEquals(expected.executedTestSteps.map { it.succeeded }, replayed.executedTestSteps.map { it.succeeded })
+        assertEquals(expected.numFailedTests, replayed.numFailedTests)
+        assertTrue(
+            recorded.executedTestSteps.zip(replayed.executedTestSteps)
+                .all { (first, second) -> first.refLiveOutput === second.refLiveOutput },
+            "The second run did not replay the reference outputs of the first"
+        )
+
+        val archive = File.createTempFile("reference", ".bin").also { it.deleteOnExit() }
+        assertTrue(saveReferenceOutputArchive(archive) > 0)
+        cached.close()
+        ReferenceOutputCache.clear()
+        assertTrue(loadReferenceOutputArchive(archive) > 0)
+        val reloaded = TestGenerator(reference, cacheReferenceOutputs = true)
+        val key = reloaded.referenceOutputKey(seed, reloaded.mergedArgs.resolve(), 0, 1)!!
+        ReferenceOutputCache.prepare(reloaded, key)
+        val archived = ReferenceOutputCache.get(reloaded, key)
+        assertTrue(archived != null, "The archived run was not loaded")
+        val rerun = reloaded.loadSubmission(submission).runTestsUnsecured(seed)
+        assertEquals(expected.executedTestSteps.map { it.succeeded }, rerun.executedTestSteps.map { it.succeeded })
+        assertEquals(
+            recorded.executedTestSteps.map { it.refLiveOutput.output },
+            rerun.executedTestSteps.map { it.refLiveOutput.output }
+        )
+        assertTrue(archived!!.mapNotNull { it.output }.zip(rerun.executedTestSteps).all { (output, step) ->
+            output === step.refLiveOutput
+        })
+
+        // Runs with outputs of classes that archives may not contain can't be moved to another TestGenerator
+        fun stepReturning(output: Any?) = ReferenceOutputCache.Step(
+            null,
+            arrayOf(1),
+            TestOutput(
+                typeOfBehavior = Behavior.RETURNED, receiver = null, args = arrayOf(1), output = output,
+                threw = null, stdOut = null, stdErr = null
+            )
+        )
+        val allowed = listOf(listOf(BigInteger.ONE), IllegalStateException("allowed"))
+        val disallowed = listOf(URI("https://example.com"), BadAttributeValueExpException(1), PriorityQueue<Int>())
+        val keys = (allowed + disallowed).mapIndexed { index, output ->
+            key.copy(seed = seed + index + 1)
+                .also { ReferenceOutputCache.record(reloaded, it, listOf(stepReturning(output))) }
+        }
+        val other = TestGenerator(reference, cacheReferenceOutputs = true)
+        keys.forEach { ReferenceOutputCache.prepare(other, it) }
+        assertEquals(
+            allowed.map { true } + disallowed.map { false },
+            keys.map { ReferenceOutputCache.get(other, it) != null }
+        )
+
+        // A @Verify method could modify the shared outputs
+        val verified = TestGenerator(examples.sorting.reference.ArraySorter::class.java, cacheReferenceOutputs = true)
+        assertTrue(verified.referenceOutputKey(seed, verified.mergedArgs.resolve(), 0, 1) == null)
+
+        // Nor could runs of a question with static state be replayed
+        val stateful = TestGenerator(
+            examples.testgeneration.mutatestaticfield.reference.Counter::class.java,
+            cacheReferenceOutputs = true
+        )
+        assertNull(stateful.referenceOutputKey(seed, stateful.mergedArgs.resolve(), 0, 1))
+    }
+
     @Test
     fun testStaticTakesInstanceError() {
         val errMsg = assertThrows<AnswerableMisuseException> {
@@ -206,6 +360,40 @@ internal class TestGeneratorTest {
         out.assertAllSucceeded()
     }
 
+    @Test
+    fun testOutputComparison() {
+        assertTrue(outputsEqual(intArrayOf(1, 2), intArrayOf(1, 2)))
+        assertFalse(outputsEqual(intArrayOf(1, 2), longArrayOf(1, 2)))
+        assertTrue(outputsEqual(arrayOf(intArrayOf(1), null), arrayOf(intArrayOf(1), null)))
+        assertTrue(outputsEqual(listOf(intArrayOf(1)), LinkedList(listOf(intArrayOf(1)))))
+        assertFalse(outputsEqual(listOf(intArrayOf(1)), listOf(intArrayOf(2))))
+        assertTrue(outputsEqual(mapOf("a" to arrayOf("b")), mapOf("a" to arrayOf("b"))))
+        assertFalse(outputsEqual(mapOf("a" to null), mapOf("b" to null)))
+
+        fun returned(output: Any?) = TestOutput(Behavior.RETURNED, null, arrayOf(), output, null, null, null)
+        assertEquals(null, compareOutputs(returned(intArrayOf(1, 2)), returned(intArrayOf(1, 2))))
+        assertEquals(
+            "Return value: expected: <[1, 2]> but was: <[2, 1]>",
+            compareOutputs(returned(intArrayOf(1, 2)), returned(intArrayOf(2, 1)))?.message
+        )
+    }
+
+    @Test
+    fun testEdgeCaseStepsKeepTheirOwnArgs() {
+        val out = TestGenerator(examples.testgeneration.reference.EdgeCases::class.java)
+            .loadSubmission(examples.testgeneration.EdgeCases::class.java)
+            .runTestsUnsecured(0x0403)
+        val steps = out.executedTestSteps.filter { it.testType == TestType.Edge || it.testType == TestType.Simple }
+
+        assertTrue(steps.size > 1)
+        steps.zipWithNext().forEach { (previous, next) ->
+            assertFalse(previous.refLiveOutput.args === next.refLiveOutput.args)
+        }
+        steps.forEach {
+            assertEquals(it.refOutput.args.map { arg -> arg?.value }, it.refLiveOutput.args.map { arg -> "$arg" })
+        }
+    }
+
     @Test
     fun testReceiverEdgeCases() {
         val out = TestGenerator(examples.testgeneration.reference.ReceiverEdgeCase::class.java)
@@ -245,6 +433,84 @@ internal class TestGeneratorTest {
         secondOut.assertAllSucceeded()
     }
 
+    @Test
+    fun testStaticStateIsNotSharded() {
+        val submission = TestGenerator(examples.testgeneration.mutatestaticfield.reference.Counter::class.java)
+            .loadSubmission(examples.testgeneration.mutatestaticfield.Counter::class.java)
+        fun TestingResults.outcomes() = executedTestSteps.map { Triple(it.testNumber, it.testType, it.succeeded) }
+        val unsharded = submission.runTestsUnsecured(0x0403)
+        val sharded = submission.runTestsUnsecured(0x0403, TestRunnerArgs(numShards = 4))
+        sharded.assertAllSucceeded()
+        assertEquals(unsharded.outcomes(), sharded.outcomes())
+    }
+
+    @Test
+    fun testReusedSubmissionStaticField() {
+        val generator = TestGenerator(examples.testgeneration.mutatestaticfield.reference.Counter::class.java)
+        val runner = generator.loadSubmission(
+            examples.testgeneration.mutatestaticfield.Counter::class.java,
+            reuseSubmission = true
+        )
+        val firstOut = runner.runTestsUnsecured(0x0403)
+        firstOut.assertAllSucceeded()
+        val secondOut = runner.runTestsUnsecured(403)
+        secondOut.assertAllSucceeded()
+        assertEquals(firstOut.testedClass, secondOut.testedClass)
+        fun TestingResults.outcomes() = executedTestSteps.map { it.succeeded to it.subOutput.output?.value }
+        val freshOut = generator.loadSubmission(examples.testgeneration.mutatestaticfield.Counter::class.java)
+            .runTestsUnsecured(403)
+        assertEquals(freshOut.outcomes(), secondOut.outcomes())
+
+        // Arrays and collections that static fields refer to are restored too
+        val collectionRunner = generator.loadSubmission(
+            examples.testgeneration.mutatestaticfield.collection.Counter::class.java,
+            reuseSubmission = true
+        )
+        collectionRunner.runTestsUnsecured(0x0403).assertAllSucceeded()
+        val reusedOut = collectionRunner.runTestsUnsecured(403)
+        reusedOut.assertAllSucceeded()
+        assertEquals(freshOut.outcomes(), reusedOut.outcomes())
+    }
+
+    @Test
+    fun testCloseReleasesLoaders() {
+        val generator = TestGenerator(examples.testgeneration.mutatestaticfield.reference.Counter::class.java)
+        val runner = generator.loadSubmission(
+            examples.testgeneration.mutatestaticfield.Counter::class.java,
+            reuseSubmission = true
+        )
+        runner.runTestsUnsecured(0x0403).assertAllSucceeded()
+        val metrics = generator.loaderMetrics()
+        assertTrue(metrics.liveLoaders > 0)
+        assertTrue(metrics.liveMirrorClasses > 0)
+        generator.close()
+        assertEquals(0, generator.loaderMetrics().liveLoaders)
+        assertEquals(0, generator.loaderMetrics().liveMirrorClasses)
+        assertThrows<IllegalStateException> { runner.runTestsUnsecured(0x0403) }
+        assertThrows<IllegalStateException> {
+            generator.loadSubmission(examples.testgeneration.mutatestaticfield.Counter::class.java)
+        }
+    }
+
+    @Test
+    fun testGradedSubmissionLoaderCollected() {
+        val generator = TestGenerator(examples.proxy.reference.CopyableWidget::class.java)
+        fun gradeAndForget(): WeakReference<ClassLoader> {
+            val out = generator.loadSubmission(examples.proxy.CopyableWidget::class.java).runTestsUnsecured(0x0403)
+            out.assertAllSucceeded()
+            return WeakReference(out.executedTestSteps.first().subDangerousLiveReceiver!!.javaClass.classLoader)
+        }
+        val loader = gradeAndForget()
+        @Suppress("MagicNumber")
+        for (attempt in 0 until 20) {
+            if (loader.get() == null) break
+            System.gc()
+            Thread.sleep(50)
+        }
+        assertNull(loader.get())
+        generator.close()
+    }
+
     @Test
     fun testMutatedStaticFieldWithTimeout() {
         val generator = TestGenerator(examples.testgeneration.mutatestaticfield.reference.Counter::class.java)
@@ -256,6 +522,72 @@ internal class TestGeneratorTest {
         secondOut.assertAllSucceeded()
     }
 
+    @Test
+    fun testInvocationTimeout() {
+        val submission = TestGenerator(examples.testgeneration.timeout.reference.TimeOut::class.java)
+            .loadSubmission(examples.testgeneration.timeout.TimeOut::class.java)
+
+        val out = submission.runTestsUnsecured(0x0403, TestRunnerArgs(numTests = 8, invocationTimeout = 20))
+        assertFalse(out.timedOut)
+        assertEquals(8, out.numTests)
+        assertTrue(out.executedTestSteps.all { !it.succeeded && it.subOutput.typeOfBehavior == Behavior.TIMED_OUT })
+
+        val stoppedOut = submission.runTestsUnsecured(
+            0x0403,
+            TestRunnerArgs(numTests = 8, invocationTimeout = 20, maxFailures = 2)
+        )
+        assertTrue(stoppedOut.stoppedEarly)
+        assertEquals(2, stoppedOut.numFailedTests)
+        // With all of the steps at hand, the number of failures is counted from them
+        assertEquals(2, stoppedOut.copy(numStreamedFailedTests = 0).numFailedTests)
+
+        // A call that catches the ThreadDeath stopping it still times out, and so do the following calls
+        val swallowedOut = TestGenerator(examples.testgeneration.timeout.reference.TimeOut::class.java)
+            .loadSubmission(examples.testgeneration.timeout.swallowed.TimeOut::class.java)
+            .runTestsUnsecured(0x0403, TestRunnerArgs(numTests = 8, invocationTimeout = 20))
+        assertFalse(swallowedOut.timedOut)
+        assertEquals(8, swallowedOut.numTests)
+        assertTrue(
+            swallowedOut.executedTestSteps.all { !it.succeeded && it.subOutput.typeOfBehavior == Behavior.TIMED_OUT }
+        )
+    }
+
+    @Test
+    fun testPrintedOutputCapture() {
+        val originalOut = System.out
+        val out = TestGenerator(examples.printer.correct.reference.Printer::class.java)
+            .loadSubmission(examples.printer.correct.Printer::class.java)
+            .runTestsUnsecured(0x0403, TestRunnerArgs(numTests = 32))
+        out.assertAllSucceeded()
+        assertTrue(out.executedTestSteps.all { it.subOutput.stdOut == "Hello, world!${System.lineSeparator()}" })
+        assertTrue(System.out === originalOut)
+
+        val printed = (0 until 4).map { thread ->
+            CompletableFuture.supplyAsync {
+                (0 until 100).all {
+                    DefaultOutputCapturer.runCapturingOutput(Runnable { print("$thread:$it") })
+                    DefaultOutputCapturer.getStandardOut() == "$thread:$it"
+                }
+            }
+        }
+        assertTrue(printed.all { it.join() })
+        assertTrue(System.out === originalOut)
+
+        DefaultOutputCapturer.beginRun()
+        try {
+            DefaultOutputCapturer.runCapturingOutput(
+                Runnable {
+                    print("é")
+                    Thread { print("λ") }.apply { start() }.join()
+                }
+            )
+            assertEquals("éλ", DefaultOutputCapturer.getStandardOut())
+        } finally {
+            DefaultOutputCapturer.endRun()
+        }
+        assertTrue(System.out === originalOut)
+    }
+
     @Test
     fun testIntArrayParameter() {
         val out = TestGenerator(examples.testgeneration.arrays.reference.IntArrayParameter::class.java)
@@ -283,6 +615,18 @@ internal class TestGeneratorTest {
         out.assertAllSucceeded()
     }
 
+    @Test
+    fun testPrimitiveGenerators() {
+        val tg = TestGenerator(examples.testgeneration.generators.reference.LabeledParamGens::class.java)
+        val overridden = tg.generators[GeneratorType(Int::class.java, "override")]?.gen
+        val default = tg.generators[GeneratorType(Int::class.java)]?.gen
+        assertTrue(overridden is IntGen, "The @Generator for `int' was not bound as an IntGen")
+        assertTrue(default is IntGen, "The default generator for `int' is not an IntGen")
+        val random = java.util.Random(0x0403)
+        assertEquals(0, (overridden as IntGen).generateInt(1, random))
+        assertTrue((1..100).map { (default as IntGen).generateInt(4, random) }.all { it in -4..4 })
+    }
+
     @Test
     fun testRunnerArgsOverriding() {
         val seed = Random.nextLong()
@@ -342,6 +686,131 @@ internal class TestGeneratorTest {
         assertEquals(2, out.numEdgeCaseTests)
     }
 
+    @Test
+    fun testShardedRunsAreDeterministic() {
+        val seed = Random.nextLong()
+        val args = TestRunnerArgs(numTests = 256, numShards = 4)
+        val submission = TestGenerator(examples.lastten.correct.reference.LastTen::class.java)
+            .loadSubmission(examples.lastten.correct.LastTen::class.java)
+        fun TestingResults.stepSummaries() = testSteps.map {
+            Triple(it.testNumber, it.testType, (it as? ExecutedTestStep)?.refOutput?.args?.map { arg -> arg?.value })
+        }
+
+        val out = submission.runTestsUnsecured(seed, args)
+        assertEquals(256, out.numTests)
+        assertEquals(out.testSteps.size, out.testSteps.map { it.testNumber }.toSet().size)
+        out.assertAllSucceeded()
+        assertEquals(out.stepSummaries(), submission.runTestsUnsecured(seed, args).stepSummaries())
+    }
+
+    @Test
+    fun testShardedRunsShareTimeLimit() {
+        val out = TestGenerator(examples.testgeneration.timeout.reference.TimeOut::class.java)
+            .loadSubmission(examples.testgeneration.timeout.TimeOut::class.java)
+            .runTestsUnsecured(0x0403, TestRunnerArgs(numTests = 8, numShards = 4))
+        assertTrue(out.timedOut)
+        // The @Timeout is 1 second for the whole run, not for each shard
+        assertTrue(out.endTime - out.startTime < 2500)
+    }
+
+    @Test
+    fun testMaxFailures() {
+        val seed = Random.nextLong()
+        val submission = TestGenerator(examples.testgeneration.reference.HalfRight::class.java)
+            .loadSubmission(examples.testgeneration.HalfRight::class.java)
+        listOf(1, 4).forEach { numShards ->
+            listOf(1, 3).forEach { maxFailures ->
+                val out = submission.runTestsUnsecured(
+                    seed,
+                    TestRunnerArgs(numShards = numShards, maxFailures = maxFailures)
+                )
+                assertTrue(out.stoppedEarly)
+                assertEquals(maxFailures, out.numFailedTests)
+                assertEquals(TestRunnerArgs.DEFAULT_NUM_TESTS - out.numTests, out.numRemainingTests)
+                assertFalse((out.testSteps.last() as ExecutedTestStep).succeeded)
+            }
+        }
+    }
+
+    @Test
+    fun testStepListeners() {
+        val seed = Random.nextLong()
+        val submission = TestGenerator(examples.testgeneration.reference.HalfRight::class.java)
+            .loadSubmission(examples.testgeneration.HalfRight::class.java)
+        val expected = submission.runTestsUnsecured(seed)
+
+        val failures = TestStepCollector.failuresOnly()
+        val out = submission.runTests(seed, unsecuredEnvironment, defaultArgs, failures)
+        assertTrue(out.testSteps.isEmpty())
+        assertEquals(expected.numFailedTests, out.numFailedTests)
+        assertEquals(
+            expected.executedTestSteps.filter { !it.succeeded }.map { it.testNumber },
+            failures.testSteps.map { it.testNumber }
+        )
+
+        val counter = TestStepCounter()
+        val shardedOut = submission.runTests(seed, unsecuredEnvironment, TestRunnerArgs(numShards = 4), counter)
+        assertEquals(TestRunnerArgs.DEFAULT_NUM_TESTS, counter.numSteps)
+        assertEquals(shardedOut.numFailedTests, counter.numFailedTests)
+
+        // Runners that don't stream their steps pass them to the listener once the run is over
+        val collecting = object : TestRunner {
+            override fun runTests(seed: Long, environment: TestEnvironment, testRunnerArgs: TestRunnerArgs) =
+                submission.runTests(seed, environment, testRunnerArgs)
+
+            override fun runTests(seed: Long, environment: TestEnvironment) =
+                submission.runTests(seed, environment)
+        }
+        val replayed = TestStepCollector.failuresOnly()
+        val replayedOut = collecting.runTests(seed, unsecuredEnvironment, defaultArgs, replayed)
+        assertTrue(replayedOut.testSteps.isEmpty())
+        assertEquals(expected.numFailedTests, replayedOut.numFailedTests)
+        assertEquals(failures.testSteps.map { it.testNumber }, replayed.testSteps.map { it.testNumber })
+    }
+
+    @Test
+    fun testLazyOssification() {
+        val seed = Random.nextLong()
+        val generator = TestGenerator(examples.adder.correct.reference.Adder::class.java)
+        val submission = generator.loadSubmission(examples.adder.correct.Adder::class.java)
+        fun TestingResults.outputs() = executedTestSteps.map {
+            Triple(it.refOutput.args.map { arg -> arg?.value }, it.refOutput.output?.value, it.subOutput.output?.value)
+        }
+
+        val eagerOut = submission.runTestsUnsecured(seed)
+        val lazyOut = submission.runTestsUnsecured(seed, TestRunnerArgs(lazyOssification = true))
+        lazyOut.assertAllSucceeded()
+        assertEquals(eagerOut.outputs(), lazyOut.outputs())
+
+        // Steps can still be made from values that were already ossified
+        val step = eagerOut.executedTestSteps.first()
+        val copied = ExecutedTestStep(
+            step.testNumber, step.testType, step.refReceiver, step.subReceiver, step.refLiveReceiver,
+            step.subDangerousLiveReceiver, step.succeeded, step.refOutput, step.subOutput, step.refLiveOutput,
+            step.subDangerousLiveOutput, step.assertErr
+        )
+        assertTrue(copied.refOutput === step.refOutput)
+
+        // Values that weren't ossified before the generator was closed can't be, since their class names are gone
+        val unusedStep = submission.runTestsUnsecured(seed, TestRunnerArgs(lazyOssification = true))
+            .executedTestSteps.first()
+        generator.close()
+        assertThrows<IllegalStateException> { unusedStep.refOutput }
+        assertThrows<IllegalStateException> { unusedStep.subOutput }
+    }
+
+    @Test
+    fun testConcurrentRunsAreDeterministic() {
+        val submission = TestGenerator(examples.adder.correct.reference.Adder::class.java)
+            .loadSubmission(examples.adder.correct.Adder::class.java)
+        fun TestingResults.arguments() = executedTestSteps.map { it.refOutput.args.map { arg -> arg?.value } }
+        val expected = submission.runTestsUnsecured(0x0403).arguments()
+        val concurrent = (0 until 4).map {
+            CompletableFuture.supplyAsync { (0 until 8).map { submission.runTestsUnsecured(0x0403).arguments() } }
+        }
+        concurrent.flatMap { it.join() }.forEach { assertEquals(expected, it) }
+    }
+
     @Test
     fun testAnnotationRunnerArgs() {
         val out = TestGenerator(
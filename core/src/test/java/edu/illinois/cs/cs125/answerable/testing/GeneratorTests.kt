@@ -1,6 +1,7 @@
 package edu.illinois.cs.cs125.answerable.testing
 
 import edu.illinois.cs.cs125.answerable.api.defaultIntGenerator
+import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertFalse
 import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.BeforeEach
@@ -111,6 +112,32 @@ class GeneratorTests {
         assertFalse(chars.any { it.toInt() < 32 })
     }
 
+    @Test
+    fun testUnicodeGenPrintable() {
+        val unicodeBlocks = (0 until 2000).map { defaultCharGen(1000, random) }
+            .filter { it !in ' '.rangeTo('~') }
+            .map { Character.UnicodeBlock.of(it) }
+        assertTrue(unicodeBlocks.size > 100)
+        assertTrue(unicodeBlocks.toSet().size > 5)
+        assertFalse(unicodeBlocks.any { it == Character.UnicodeBlock.BASIC_LATIN || it == null })
+    }
+
+    @Test
+    fun testUnicodeGenDraws() {
+        // The same seed must keep producing the same chars, so that saved seeds can be replayed
+        val codes = (0 until 12).map { defaultCharGen(1000, random).toInt() }
+        assertEquals(listOf(101, 12959, 62, 93, 58, 8653, 106, 2992, 34, 78, 1323, 84), codes)
+    }
+
+    @Test
+    fun testStringGenUsesCharGen() {
+        repeat(50) {
+            val string = DefaultStringGen(defaultAsciiGen)(it, random)
+            assertTrue(string.length <= it)
+            assertTrue(string.all { char -> char in ' '.rangeTo('~') })
+        }
+    }
+
     @Test
     fun testBooleanGenRange() {
         val answers = (0 until 50).map {
@@ -227,4 +254,25 @@ class GeneratorTests {
             value
         }
     }
+
+    @Test
+    fun testArrayGenTypes() {
+        primitiveGenerators.forEach { (klass, gen) ->
+            val array = defaultArrayGen(gen, klass)(8, random)
+            assertEquals(klass, array.javaClass.componentType)
+        }
+        val boxedInts = object : Gen<Any?> {
+            override fun generate(complexity: Int, random: Random): Any? = defaultIntGen(complexity, random)
+        }
+        val ints = defaultArrayGen(boxedInts, Int::class.java)(8, random)
+        assertTrue(ints is IntArray)
+
+        val strings = defaultArrayGen(DefaultStringGen(defaultAsciiGen), String::class.java)
+        val nested = defaultArrayGen(strings, Array<String>::class.java)
+        repeat(20) {
+            val array = nested(8, random)
+            assertTrue(array is Array<*> && array.all { row -> row is Array<*> && row.all { it is String } })
+            assertEquals(Array<Array<String>>::class.java, array.javaClass)
+        }
+    }
 }
@@ -0,0 +1,17 @@
+package examples.testgeneration.generators.defaults;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CollectionParameters {
+
+  public static int test(
+      List<Integer> nums, Set<String> words, Map<Character, List<int[]>> arrays) {
+    System.out.println(nums + " " + words + " " + arrays.keySet());
+    int total = nums.stream().mapToInt(Integer::intValue).sum();
+    total += words.stream().mapToInt(String::length).sum();
+    return total
+        + arrays.values().stream().flatMap(List::stream).mapToInt(array -> array.length).sum();
+  }
+}
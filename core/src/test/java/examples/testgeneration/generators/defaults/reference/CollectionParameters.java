@@ -0,0 +1,28 @@
+package examples.testgeneration.generators.defaults.reference;
+
+import edu.illinois.cs.cs125.answerable.annotations.Solution;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CollectionParameters {
+
+  @Solution(prints = true)
+  public static int test(
+      List<Integer> ints, Set<String> strings, Map<Character, List<int[]>> arrays) {
+    System.out.println(ints + " " + strings + " " + arrays.keySet());
+    int total = 0;
+    for (int i : ints) {
+      total += i;
+    }
+    for (String string : strings) {
+      total += string.length();
+    }
+    for (List<int[]> list : arrays.values()) {
+      for (int[] array : list) {
+        total += array.length;
+      }
+    }
+    return total;
+  }
+}
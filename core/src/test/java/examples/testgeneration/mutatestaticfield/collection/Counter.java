@@ -0,0 +1,16 @@
+package examples.testgeneration.mutatestaticfield.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Counter {
+
+  private static final int[] clicks = new int[1];
+  private static List<Integer> history = new ArrayList<>();
+
+  public static int increment() {
+    clicks[0]++;
+    history.add(clicks[0]);
+    return history.size() == clicks[0] ? clicks[0] : -1;
+  }
+}
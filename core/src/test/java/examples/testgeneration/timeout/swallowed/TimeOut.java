@@ -0,0 +1,11 @@
+package examples.testgeneration.timeout.swallowed;
+
+public class TimeOut {
+  public static void doNothing() {
+    try {
+      while (true) {}
+    } catch (Throwable t) {
+      // Swallows whatever stops the loop, including a ThreadDeath
+    }
+  }
+}
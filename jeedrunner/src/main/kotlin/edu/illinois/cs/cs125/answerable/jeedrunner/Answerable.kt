@@ -8,6 +8,7 @@ import edu.illinois.cs.cs125.answerable.TestGenerator
 import edu.illinois.cs.cs125.answerable.annotations.DEFAULT_EMPTY_NAME
 import edu.illinois.cs.cs125.answerable.annotations.Solution
 import edu.illinois.cs.cs125.answerable.api.BytecodeProvider
+import edu.illinois.cs.cs125.answerable.api.LoaderMetrics
 import edu.illinois.cs.cs125.answerable.testing.TestRunnerArgs
 import edu.illinois.cs.cs125.answerable.testing.TestingResults
 import edu.illinois.cs.cs125.answerable.testing.defaultArgs
@@ -24,8 +25,10 @@ import kotlin.random.Random
 /**
  * Facilitates use of Answerable as a service by compiling code with Jeed, keeping track of questions, and running
  * submissions in the Jeed sandbox.
+ *
+ * Closing the service unloads all its questions.
  */
-class Answerable {
+class Answerable : AutoCloseable {
 
     /** Currently loaded questions. */
     private val questions = mutableMapOf<String, Question>()
@@ -174,13 +177,36 @@ class Answerable {
     }
 
     /**
-     * Removes a question from this service's records.
+     * Removes a question from this service's records and releases the classes loaded for it and its submissions.
+     * Test runners for the question can't be used afterwards.
      *
      * @param questionName the name of the question to unload
      * @return whether there was a question of the specified name
      */
     fun unloadQuestion(questionName: String): Boolean {
-        return questions.remove(questionName) != null
+        val question = questions.remove(questionName) ?: return false
+        question.testGenerator.close()
+        return true
+    }
+
+    /**
+     * Counts the class loaders and mirror classes currently kept alive for a question.
+     *
+     * @throws IllegalArgumentException if there is no currently loaded question with the specified name
+     *
+     * @param questionName the name of the question
+     * @return loader metrics for the question and its submissions
+     */
+    fun loaderMetrics(questionName: String): LoaderMetrics {
+        val question = questions[questionName] ?: error("No question named $questionName is currently loaded")
+        return question.testGenerator.loaderMetrics()
+    }
+
+    /**
+     * Unloads every question.
+     */
+    override fun close() {
+        questions.keys.toList().forEach { unloadQuestion(it) }
     }
 
     /**
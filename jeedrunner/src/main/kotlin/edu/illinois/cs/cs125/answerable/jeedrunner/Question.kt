@@ -5,6 +5,7 @@ package edu.illinois.cs.cs125.answerable.jeedrunner
 import edu.illinois.cs.cs125.answerable.TestEnvironment
 import edu.illinois.cs.cs125.answerable.TestGenerator
 import edu.illinois.cs.cs125.answerable.TestRunner
+import edu.illinois.cs.cs125.answerable.api.TestStepListener
 import edu.illinois.cs.cs125.answerable.testing.TestRunnerArgs
 import edu.illinois.cs.cs125.answerable.testing.TestingResults
 import edu.illinois.cs.cs125.answerable.testing.defaultArgs
@@ -63,4 +64,22 @@ class JeedTestRunner internal constructor(
     fun runTests(testRunnerArgs: TestRunnerArgs): TestingResults {
         return runTests(Random.nextLong(), testRunnerArgs)
     }
+
+    /**
+     * Tests the submission in the Jeed sandbox, passing each test step to the [listener] as it completes
+     * instead of keeping the steps in the results.
+     *
+     * @param listener the listener to receive the test steps
+     * @param seed the seed to use for random generation (defaults to random)
+     * @param testRunnerArgs any additional overrides of test run arguments
+     * @return the test results, without test steps
+     */
+    @JvmOverloads
+    fun runTests(
+        listener: TestStepListener,
+        seed: Long = Random.nextLong(),
+        testRunnerArgs: TestRunnerArgs = defaultArgs
+    ): TestingResults {
+        return answerableRunner.runTests(seed, environment, testRunnerArgs, listener)
+    }
 }